@@ -0,0 +1,41 @@
+package com.ueat.config;
+
+import com.ueat.utils.BloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class BloomFilterConfig {
+
+    @Value("${ueat.bloom.local-copy:true}")
+    private boolean localCopy;
+    @Value("${ueat.bloom.reload-interval:300}")
+    private long reloadInterval;
+
+    /**
+     * 店铺id布隆过滤器，数据由 BloomFilterInitializer 在启动时从 tb_shop 导入
+     */
+    @Bean
+    public BloomFilter shopBloomFilter(@Value("${ueat.bloom.shop.expected-insertions:1000000}") long expectedInsertions,
+                                       @Value("${ueat.bloom.shop.fpp:0.01}") double fpp,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       RedisMessageListenerContainer listenerContainer) {
+        return new BloomFilter("shop", expectedInsertions, fpp, localCopy, reloadInterval,
+                stringRedisTemplate, listenerContainer);
+    }
+
+    /**
+     * 博客id布隆过滤器，数据由 BloomFilterInitializer 在启动时从 tb_blog 导入
+     */
+    @Bean
+    public BloomFilter blogBloomFilter(@Value("${ueat.bloom.blog.expected-insertions:1000000}") long expectedInsertions,
+                                       @Value("${ueat.bloom.blog.fpp:0.01}") double fpp,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       RedisMessageListenerContainer listenerContainer) {
+        return new BloomFilter("blog", expectedInsertions, fpp, localCopy, reloadInterval,
+                stringRedisTemplate, listenerContainer);
+    }
+}
@@ -0,0 +1,69 @@
+package com.ueat.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.ueat.service.IBlogService;
+import com.ueat.service.IShopService;
+import com.ueat.utils.BloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 启动时把 tb_shop、tb_blog 的id导入布隆过滤器
+ * bitmap 在 redis 中共享，只要有一个实例导入完成（:ready 标记存在），其他实例启动时只加载本地副本
+ * 运行中 bitmap 丢失时，布隆过滤器回调 rebuild 重新导入
+ */
+@Slf4j
+@Component
+public class BloomFilterInitializer implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BloomFilter shopBloomFilter;
+    @Resource
+    private BloomFilter blogBloomFilter;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        init(shopBloomFilter, shopService, "tb_shop");
+        init(blogBloomFilter, blogService, "tb_blog");
+    }
+
+    private <T> void init(BloomFilter bloomFilter, IService<T> service, String table) {
+        if (!bloomFilter.isInitialized()) {
+            rebuild(bloomFilter, service, table);
+        }
+        bloomFilter.markReady();
+        bloomFilter.setRebuilder(() -> {
+            rebuild(bloomFilter, service, table);
+            bloomFilter.markReady();
+        });
+    }
+
+    private <T> void rebuild(BloomFilter bloomFilter, IService<T> service, String table) {
+        // 按主键分批读取id，避免一次加载整张表
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            List<Object> ids = service.listObjs(new QueryWrapper<T>()
+                    .select("id").gt("id", lastId).orderByAsc("id").last("limit " + BATCH_SIZE));
+            if (ids.isEmpty()) {
+                break;
+            }
+            bloomFilter.addAll(ids);
+            count += ids.size();
+            lastId = ((Number) ids.get(ids.size() - 1)).longValue();
+        }
+        log.info("{} 的 {} 个id已导入布隆过滤器", table, count);
+    }
+}
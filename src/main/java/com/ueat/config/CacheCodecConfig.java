@@ -0,0 +1,27 @@
+package com.ueat.config;
+
+import com.ueat.utils.BinaryCacheCodec;
+import com.ueat.utils.CacheCodec;
+import com.ueat.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheCodecConfig {
+
+    /**
+     * 按 ueat.cache.codec 选择缓存编解码：json（Hutool JSON）或 binary（二进制，能读取旧的 json 数据）
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${ueat.cache.codec:json}") String codec) {
+        switch (codec) {
+            case "json":
+                return new JsonCacheCodec();
+            case "binary":
+                return new BinaryCacheCodec();
+            default:
+                throw new IllegalArgumentException("未知的缓存编解码: " + codec);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.ueat.config;
+
+import com.ueat.entity.SeckillVoucher;
+import com.ueat.entity.Shop;
+import com.ueat.service.ISeckillVoucherService;
+import com.ueat.service.IShopService;
+import com.ueat.utils.CacheClient;
+import com.ueat.utils.RedisConstants;
+import com.ueat.utils.ShopGeoIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时预热缓存：店铺（cache:shop:*、shop:geo:*）、秒杀库存（店铺类型列表是内存快照，不需要预热）
+ * 1. tb_shop 按主键分页读取，每页一次 pipeline 写入店铺缓存、一次 pipeline 写入 GEO
+ * 2. 每次预热记录处理到的最大 update_time 作为水位，下次启动只预热水位之后更新过的店铺
+ *    redis 被清空时水位也一起没了，自动退化为全量预热
+ * 3. 秒杀库存用 SETNX 写入，不覆盖正在秒杀中的库存
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Value("${ueat.warm-up.enabled:true}")
+    private boolean enabled;
+    @Value("${ueat.warm-up.page-size:500}")
+    private int pageSize;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        warmUpShops();
+        warmUpSeckillStock();
+    }
+
+    /**
+     * 预热店铺缓存和 GEO，有水位时只处理水位之后更新过的店铺
+     */
+    public void warmUpShops() {
+        long begin = System.currentTimeMillis();
+        String watermarkStr = stringRedisTemplate.opsForValue().get(RedisConstants.WARM_UP_SHOP_WATERMARK_KEY);
+        LocalDateTime watermark = watermarkStr == null ? null
+                : LocalDateTime.ofEpochSecond(Long.parseLong(watermarkStr), 0, ZoneOffset.UTC);
+        int total = shopService.query().ge(watermark != null, "update_time", watermark).count();
+        log.info("开始{}预热店铺缓存，共 {} 个店铺", watermark == null ? "全量" : "增量", total);
+        long lastId = 0;
+        int done = 0;
+        LocalDateTime maxUpdateTime = watermark;
+        while (true) {
+            // 1. 按主键分页读取
+            List<Shop> shops = shopService.query()
+                    .ge(watermark != null, "update_time", watermark)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            // 2. 一次 pipeline 写入店铺缓存（逻辑过期）
+            Map<String, Shop> values = new LinkedHashMap<>(shops.size());
+            for (Shop shop : shops) {
+                values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+                if (shop.getUpdateTime() != null && (maxUpdateTime == null || shop.getUpdateTime().isAfter(maxUpdateTime))) {
+                    maxUpdateTime = shop.getUpdateTime();
+                }
+            }
+            cacheClient.setAllWithLogicalExpire(values, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+            // 3. 一次 pipeline 按类型写入 GEO
+            shopGeoIndex.addAll(shops);
+            lastId = shops.get(shops.size() - 1).getId();
+            done += shops.size();
+            log.info("店铺缓存预热进度 {}/{}，耗时 {} ms", done, total, System.currentTimeMillis() - begin);
+        }
+        // 4. 记录水位（同一秒内之后更新的店铺下次会被重复预热，不会漏）
+        if (maxUpdateTime != null) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.WARM_UP_SHOP_WATERMARK_KEY,
+                    String.valueOf(maxUpdateTime.toEpochSecond(ZoneOffset.UTC)));
+        }
+        log.info("店铺缓存预热完成，共 {} 个店铺，耗时 {} ms", done, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 预热未结束的秒杀券库存，已存在的库存不覆盖
+     */
+    public void warmUpSeckillStock() {
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        int done = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", LocalDateTime.now())
+                    .gt("voucher_id", lastId)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    conn.setNX(RedisConstants.SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString());
+                }
+                return null;
+            });
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            done += vouchers.size();
+        }
+        log.info("秒杀库存预热完成，共 {} 个秒杀券，耗时 {} ms", done, System.currentTimeMillis() - begin);
+    }
+}
@@ -0,0 +1,37 @@
+package com.ueat.config;
+
+import com.ueat.netty.NettyRedisIdWorker;
+import com.ueat.utils.IdGenerator;
+import com.ueat.utils.RedisIdWorker;
+import com.ueat.utils.SnowflakeIdWorker;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    /**
+     * 按 ueat.id.generator 选择全局ID生成器，业务代码注入 IdGenerator 即可
+     * redis：RedisIdWorker（默认）；snowflake：SnowflakeIdWorker，生成id不访问 redis；netty：NettyRedisIdWorker（已废弃）
+     */
+    @Bean
+    @Primary
+    public IdGenerator idGenerator(@Value("${ueat.id.generator:redis}") String generator,
+                                   ObjectProvider<RedisIdWorker> redisIdWorker,
+                                   ObjectProvider<SnowflakeIdWorker> snowflakeIdWorker,
+                                   ObjectProvider<NettyRedisIdWorker> nettyRedisIdWorker) {
+        switch (generator) {
+            case "redis":
+                return redisIdWorker.getObject();
+            case "snowflake":
+                return snowflakeIdWorker.getObject();
+            case "netty":
+                return nettyRedisIdWorker.getObject();
+            default:
+                throw new IllegalArgumentException("未知的ID生成器: " + generator);
+        }
+    }
+}
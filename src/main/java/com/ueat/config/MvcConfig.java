@@ -23,12 +23,16 @@ public class MvcConfig implements WebMvcConfigurer {
                 .excludePathPatterns(
                         "/shop/**",
                         "/voucher/**",
-                        "/shop-type/**",
+                        "/shop-type/list",
                         "/upload/**",
                         "/blog/hot",
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        // /shop/** 中需要登录的接口
+        registry.addInterceptor(new LoginInterceptor())
+                .addPathPatterns("/shop/review")
+                .order(1);
 
         // 默认拦截所有请求 order越小优先级越高
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
@@ -1,17 +1,14 @@
 package com.ueat.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.ueat.dto.Result;
 import com.ueat.dto.UserDTO;
 import com.ueat.entity.Blog;
 import com.ueat.service.IBlogService;
-import com.ueat.utils.SystemConstants;
 import com.ueat.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -55,14 +52,8 @@ public class BlogController {
 
     @GetMapping("/of/me")
     public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 获取登录用户
-        UserDTO user = UserHolder.getUser();
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        // 根据登录用户查询，批量填充作者和点赞信息
+        return blogService.queryMyBlog(current);
     }
 
     @GetMapping("/hot")
@@ -86,12 +77,8 @@ public class BlogController {
             @RequestParam(value="current",defaultValue = "1") Integer current,
             // 用户id
             @RequestParam("id") Long id) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query().eq("user_id", id)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        // 根据用户查询，批量填充作者和点赞信息
+        return blogService.queryBlogByUserId(id, current);
     }
 
 
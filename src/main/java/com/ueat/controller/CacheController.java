@@ -0,0 +1,41 @@
+package com.ueat.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.ueat.dto.Result;
+import com.ueat.utils.CacheClient;
+import com.ueat.utils.CacheRebuildScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    /**
+     * 本地缓存和缓存重建线程池的统计
+     * @return 命中、未命中、淘汰次数，重建队列长度、耗时、失败次数等
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        CacheStats stats = cacheClient.localStats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cacheClient.localSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("evictionWeight", stats.evictionWeight());
+        result.put("rebuild", cacheRebuildScheduler.stats());
+        return Result.ok(result);
+    }
+}
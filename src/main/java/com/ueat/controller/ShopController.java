@@ -1,12 +1,11 @@
 package com.ueat.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.ueat.dto.Result;
+import com.ueat.dto.ShopReviewDTO;
 import com.ueat.entity.Shop;
+import com.ueat.service.IShopRankService;
 import com.ueat.service.IShopService;
-import com.ueat.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -26,6 +25,9 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private IShopRankService shopRankService;
+
     /**
      * 根据id查询商铺信息
      *
@@ -46,9 +48,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -84,6 +84,50 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, x, y);
     }
 
+    /**
+     * 根据商铺类型按距离游标分页查询商铺信息，翻到第几页的开销都一样
+     * @param typeId 商铺类型
+     * @param x 经度，第一页必传
+     * @param y 纬度，第一页必传
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam(value = "typeId", required = false) Integer typeId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByTypeScroll(typeId, x, y, cursor);
+    }
+
+    /**
+     * 评价商铺，计入口味、性价比、配送速度排行榜，需要登录，每个用户对每个商铺只能评价一次
+     * @param review 商铺id和各项评分（1~5分）
+     * @return 无
+     */
+    @PostMapping("/review")
+    public Result review(@RequestBody ShopReviewDTO review) {
+        return shopRankService.review(review);
+    }
+
+    /**
+     * 分页查询商铺排行榜，按近几天衰减后的分数排序
+     * @param dimension 排行榜维度：taste / value / delivery
+     * @param typeId 商铺类型，不传为全部商铺
+     * @param current 页码
+     * @return 按名次排列的商铺列表
+     */
+    @GetMapping("/rank")
+    public Result queryRank(
+            @RequestParam("dimension") String dimension,
+            @RequestParam(value = "typeId", required = false) Integer typeId,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        return shopRankService.queryRank(dimension, typeId, current);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -95,11 +139,17 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 查询本地倒排索引，按相关度排序
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 商铺名称前缀补全
+     * @param prefix 商铺名称前缀
+     * @return 以该前缀开头的商铺名称
+     */
+    @GetMapping("/of/name/suggest")
+    public Result suggestShopName(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShopName(prefix);
     }
 }
@@ -2,8 +2,17 @@ package com.ueat.controller;
 
 
 import com.ueat.dto.Result;
+import com.ueat.dto.ShopTypeSnapshot;
+import com.ueat.entity.ShopType;
 import com.ueat.service.IShopTypeService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -23,10 +32,32 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询店铺类型列表，直接输出内存快照中序列化好的响应体
+     * @param ifNoneMatch 浏览器缓存的 ETag，和当前版本一致时返回 304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         // List<ShopType> typeList = typeService
         //         .query().orderByAsc("sort").list();
-        return typeService.queryShopType();
+        ShopTypeSnapshot snapshot = typeService.queryShopType();
+        if (snapshot.getEtag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    /**
+     * 修改店铺类型，所有实例重新加载快照，需要登录且在 ueat.shop-type.admin-user-ids 中
+     * @param shopType 店铺类型
+     * @return 无
+     */
+    @PutMapping
+    public Result updateShopType(@RequestBody ShopType shopType) {
+        return typeService.updateShopType(shopType);
     }
 }
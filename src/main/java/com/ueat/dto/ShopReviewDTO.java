@@ -0,0 +1,17 @@
+package com.ueat.dto;
+
+import lombok.Data;
+
+/**
+ * 店铺评价，各项评分 1 ~ 5 分
+ */
+@Data
+public class ShopReviewDTO {
+    private Long shopId;
+    // 口味
+    private Integer taste;
+    // 性价比
+    private Integer value;
+    // 配送速度
+    private Integer delivery;
+}
@@ -0,0 +1,23 @@
+package com.ueat.dto;
+
+import com.ueat.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，响应体提前序列化好，查询时直接输出
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    // 店铺类型列表（不可修改）
+    private final List<ShopType> types;
+    // 序列化好的 Result JSON
+    private final byte[] body;
+    // 版本号：body 的 CRC32
+    private final long version;
+    // HTTP ETag："版本号"
+    private final String etag;
+}
@@ -2,6 +2,9 @@ package com.ueat.mapper;
 
 import com.ueat.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,20 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 记录已回写的点赞批次，基于主键幂等
+     * @return 1 表示首次回写，0 表示该批次已经回写过
+     */
+    int insertLikeFlushIgnore(@Param("batchId") long batchId);
+
+    /**
+     * 一条 UPDATE ... CASE 批量累加点赞数
+     * @param deltas 笔记id -> 点赞数增量
+     */
+    int incrLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 删除 days 天前的回写批次记录
+     */
+    int deleteLikeFlushBefore(@Param("days") int days);
 }
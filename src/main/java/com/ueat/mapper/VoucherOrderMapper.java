@@ -2,6 +2,9 @@ package com.ueat.mapper;
 
 import com.ueat.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,15 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 基于 uk_user_voucher 唯一索引幂等插入，重复订单被忽略
+     * @return 实际插入的行数，0 表示该用户已下过单
+     */
+    int insertIgnore(VoucherOrder voucherOrder);
+
+    /**
+     * 多行 INSERT IGNORE
+     * @return 实际插入的行数（不含被唯一索引忽略的重复订单）
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> voucherOrders);
 }
@@ -1,5 +1,6 @@
 package com.ueat.netty;
 
+import com.ueat.utils.IdGenerator;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
@@ -7,11 +8,16 @@ import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * @deprecated 只返回按天自增的计数器，跨天、跨业务前缀都会重复，请使用 RedisIdWorker 或 SnowflakeIdWorker
+ */
+@Deprecated
 @Component
-public class NettyRedisIdWorker {
+public class NettyRedisIdWorker implements IdGenerator {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Override
     public long nextId(String keyPrefix) {
         // 生成时间戳部分
         LocalDateTime now = LocalDateTime.now();
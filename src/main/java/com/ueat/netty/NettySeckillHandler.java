@@ -1,6 +1,6 @@
 package com.ueat.netty;
 
-import com.ueat.utils.RedisIdWorker;
+import com.ueat.utils.IdGenerator;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
@@ -22,7 +22,7 @@ import java.util.concurrent.Executors;
 public class NettySeckillHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
@@ -83,7 +83,7 @@ public class NettySeckillHandler extends SimpleChannelInboundHandler<ByteBuf> {
             return "Error: Stock for voucher " + voucherId + " is depleted.";
         }
 
-        long orderId = redisIdWorker.nextId("seckill:order");
+        long orderId = idGenerator.nextId("seckill:order");
         String orderIdStr = String.valueOf(orderId);
 
         // 异步写入数据库
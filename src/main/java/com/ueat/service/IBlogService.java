@@ -16,6 +16,10 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    Result queryMyBlog(Integer current);
+
+    Result queryBlogByUserId(Long userId, Integer current);
+
     Result queryBlogById(String id);
 
     Result likeBlog(Long id);
@@ -0,0 +1,20 @@
+package com.ueat.service;
+
+import com.ueat.dto.Result;
+import com.ueat.dto.ShopReviewDTO;
+
+import java.util.Map;
+
+/**
+ * <p>
+ *  店铺排行榜服务类
+ * </p>
+ */
+public interface IShopRankService {
+
+    Result review(ShopReviewDTO review);
+
+    void recordOrders(Map<Long, Integer> orderCounts);
+
+    Result queryRank(String dimension, Integer typeId, Integer current);
+}
@@ -4,6 +4,8 @@ import com.ueat.dto.Result;
 import com.ueat.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +18,17 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor);
+
+    List<Shop> queryByIds(List<Long> ids);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result suggestShopName(String prefix);
 }
@@ -1,6 +1,7 @@
 package com.ueat.service;
 
 import com.ueat.dto.Result;
+import com.ueat.dto.ShopTypeSnapshot;
 import com.ueat.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -14,5 +15,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
-    Result queryShopType();
+    ShopTypeSnapshot queryShopType();
+
+    Result updateShopType(ShopType shopType);
 }
@@ -4,6 +4,8 @@ import com.ueat.dto.Result;
 import com.ueat.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +20,9 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result createVoucherOrder(Long voucherId);
 
-    void createVoucherOrderByVoucherOrderId(VoucherOrder voucherOrder);
+    boolean createVoucherOrderByVoucherOrderId(VoucherOrder voucherOrder);
+
+    boolean createVoucherOrderIdempotent(VoucherOrder voucherOrder);
+
+    List<VoucherOrder> createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
 }
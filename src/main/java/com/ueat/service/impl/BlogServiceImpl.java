@@ -1,31 +1,44 @@
 package com.ueat.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.ueat.dto.Result;
 import com.ueat.dto.ScrollResult;
 import com.ueat.dto.UserDTO;
 import com.ueat.entity.Blog;
-import com.ueat.entity.Follow;
 import com.ueat.entity.User;
 import com.ueat.mapper.BlogMapper;
 import com.ueat.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.ueat.service.IFollowService;
 import com.ueat.service.IUserService;
+import com.ueat.utils.BlogHotRank;
+import com.ueat.utils.BloomFilter;
+import com.ueat.utils.CacheClient;
+import com.ueat.utils.FeedPusher;
 import com.ueat.utils.RedisConstants;
 import com.ueat.utils.SystemConstants;
 import com.ueat.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -44,77 +57,104 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IFollowService followService;
+    private CacheClient cacheClient;
+    @Resource
+    private BloomFilter blogBloomFilter;
+    @Resource
+    private FeedPusher feedPusher;
+    @Resource
+    private BlogHotRank blogHotRank;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
 
     @Override
     public Result queryHotBlog(Integer current) {
+        // 页码至少为 1，负数的起始下标会从榜单末尾开始取
+        current = Math.max(current, 1);
+        // 1. 从热门榜单 blog:hot 查询当前页的笔记id
+        List<ZSetOperations.TypedTuple<String>> tuples = blogHotRank.page(
+                (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        if (tuples.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = new ArrayList<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+        }
+        // 2. 批量查询笔记缓存，缓存中的对象是共享的，复制一份再填充；点赞数由榜单分数还原
+        List<Blog> cached = cacheClient.queryAllWithPassThrough(
+                RedisConstants.CACHE_BLOG_KEY, ids, Blog.class, this::queryBlogsByIds,
+                RedisConstants.CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        Map<Long, Double> scores = new HashMap<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            scores.put(Long.valueOf(tuple.getValue()), tuple.getScore());
+        }
+        List<Blog> records = new ArrayList<>(cached.size());
+        for (Blog blog : cached) {
+            Blog copy = BeanUtil.copyProperties(blog, Blog.class);
+            copy.setLiked(blogHotRank.liked(scores.get(copy.getId()), copy.getCreateTime()));
+            records.add(copy);
+        }
+        // 3. 批量查询用户及点赞信息
+        hydrateBlogs(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        return queryBlogByUserId(user.getId(), current);
+    }
+
+    @Override
+    public Result queryBlogByUserId(Long userId, Integer current) {
         // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
+        Page<Blog> page = query().eq("user_id", userId)
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户及点赞信息
-        records.forEach(blog ->{
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
-        // records.forEach(this::queryBlogUser);
+        // 批量查询用户及点赞信息
+        hydrateBlogs(records);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(String id) {
+        // 布隆过滤器判断一定不存在的id，直接返回
+        if (!blogBloomFilter.mightContain(id)) {
+            return Result.fail("博客不存在");
+        }
         // 查询blog
         Blog blog = getById(id);
         if (blog == null) {
             return Result.fail("博客不存在");
         }
-        // 查询blog有关的用户
-        queryBlogUser(blog);
-        // 查询blog是否被点赞
-        isBlogLiked(blog);
+        // 查询blog有关的用户、是否被点赞
+        hydrateBlogs(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
-    private void isBlogLiked(Blog blog) {
-        // 1.获取当前用户
-        UserDTO user = UserHolder.getUser();
-        if (user == null) {
-            return; // 用户未登录，无需查询点赞信息
-        }
-        Long userId = UserHolder.getUser().getId();
-        // 2.判断当前用户是否点赞
-        String key = RedisConstants.BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
-    }
-
     @Override
     public Result likeBlog(Long id) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前用户是否点赞
-        String key = RedisConstants.BLOG_LIKED_KEY + id;
-        // 根据zset中的score返回值来判断key是否存在，不存在的key的score为null
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 3.未点赞
-        if (score == null) {
-            // 3.1 数据库点赞+1
-            boolean success = update().setSql("liked = liked + 1").eq("id", id).update();
-            if (success) {
-                // 3.2 保存用户到Redis的set中 zadd key value score
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            // 4.已点赞
-            // 4.1 数据库点赞-1
-            boolean success = update().setSql("liked = liked - 1").eq("id", id).update();
-            // 4.2 把用户从redis的set中删除
-            if (success) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
+        // 2.布隆过滤器判断一定不存在的笔记，直接返回
+        if (!blogBloomFilter.mightContain(id)) {
+            return Result.fail("博客不存在");
         }
+        // 3.执行 lua 脚本：判断是否点赞并切换，同时累加待回写的点赞数增量和热门榜单分数，不访问数据库
+        // tb_blog.liked 由 BlogLikeFlusher 定期批量回写
+        stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(RedisConstants.BLOG_LIKED_KEY + id, RedisConstants.BLOG_LIKE_DELTA_KEY,
+                        RedisConstants.BLOG_HOT_KEY, RedisConstants.BLOG_HOT_RECONCILE_KEY),
+                userId.toString(), id.toString(), String.valueOf(System.currentTimeMillis()));
         return Result.ok();
     }
 
@@ -127,17 +167,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 避免空指针
             return Result.ok(Collections.emptyList());
         }
-        // 解析出用户id : where id in (5,1) 用in查询时返回结果并不按照给定顺序 会先5再1
-        // 因此需要添加一个条件 order by field(id,5,1)
+        // 解析出用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 根据用户id查询
-        String idStr = StrUtil.join(",", ids);
-        // 使用自定义sql语句（query），最后一条语句不支持语法，直接用last()手动拼接上order by field 的sql语句，idstr拼接好id
-        List<Object> userDTOs = userService.query().
-                in("id",ids).last("order by field(id,"+idStr+")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 根据用户id批量查询缓存，结果按 ids 的顺序返回，不再需要 order by field(id,5,1)
+        List<UserDTO> userDTOs = cacheClient.queryAllWithPassThrough(
+                RedisConstants.CACHE_USER_KEY, ids, UserDTO.class, this::queryUserDTOs,
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
         // 返回
         return Result.ok(userDTOs);
     }
@@ -152,16 +187,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败！");
         }
-        // 查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        // 推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 获取粉丝id
-            Long userId = follow.getUserId();
-            // 推送 sortedSet存储msg 按时间进行排序
-            String key = RedisConstants.FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 写入布隆过滤器
+        blogBloomFilter.add(blog.getId());
+        // 进入热门榜单
+        blogHotRank.add(blog);
+        // 异步推送笔记id给所有粉丝，粉丝再多也不阻塞发布
+        feedPusher.publish(blog.getId(), user.getId(), System.currentTimeMillis());
         // 返回id
         return Result.ok(blog.getId());
     }
@@ -171,11 +202,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 查询用户收件箱 ZREVRANGEBYSCORE key MAX MIN WITHSCORES LIMIT offset count
-        String key = RedisConstants.FEED_KEY + userId;
+        // 查询用户收件箱，并与关注的大V的发件箱合并 ZREVRANGEBYSCORE key MAX MIN WITHSCORES LIMIT offset count
         // count为2，返回元组。最小值为0表示查到时间为0也就是查全部，max初始化为当前系统时间，也是查全部，count在全部的范围内进行截取，只返回部分
-        Set<ZSetOperations.TypedTuple<String>> typedTuples =
-                stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        List<ZSetOperations.TypedTuple<String>> typedTuples = queryFeed(userId, max, offset, 2);
         // 非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
@@ -198,16 +227,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        // 根据id查询blog (listByIds是通过in语句查询，顺序不一致)
-        // List<Blog> blogs = listByIds(ids);
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-            // 设置blog有关的用户
-            queryBlogUser(blog);
-            // 设置blog是否被点赞
-            isBlogLiked(blog);
+        // 根据id查询blog (listByIds是通过in语句查询，顺序不一致，在内存中按 ids 排序)
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogMap.get(id);
+            if (blog != null) {
+                blogs.add(blog);
+            }
         }
+        // 批量设置blog有关的用户、是否被点赞
+        hydrateBlogs(blogs);
         // 封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
@@ -217,10 +247,139 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 收件箱 feed:用户id 和关注的大V的发件箱 feed:outbox:作者id 按时间倒序多路归并
+     * 每个来源最多取 offset + count 条就足够覆盖合并后的前 offset + count 条，一次 pipeline 读取
+     * 时间相同时按 id 倒序，与 ZREVRANGEBYSCORE 的顺序一致，保证 minTime/offset 翻页结果和只有收件箱时相同
+     */
+    private List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, long max, int offset, int count) {
+        // 1. 关注的大V：SINTER follows:用户id feed:bigv
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect("follows:" + userId, RedisConstants.FEED_BIG_V_KEY);
+        List<String> keys = new ArrayList<>();
+        keys.add(RedisConstants.FEED_KEY + userId);
+        if (bigVs != null) {
+            for (String bigV : bigVs) {
+                keys.add(RedisConstants.FEED_OUTBOX_KEY + bigV);
+            }
+        }
+        // 2. 只有收件箱，直接按 offset 截取
+        if (keys.size() == 1) {
+            Set<ZSetOperations.TypedTuple<String>> tuples =
+                    stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(keys.get(0), 0, max, offset, count);
+            return tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+        }
+        // 3. 一次 pipeline 读取每个来源的前 offset + count 条
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        // 4. 多路归并：每个来源本身有序，堆里只放每个来源的当前元素
+        PriorityQueue<FeedCursor> heap = new PriorityQueue<>(keys.size());
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Iterator<ZSetOperations.TypedTuple<String>> it = ((Set<ZSetOperations.TypedTuple<String>>) result).iterator();
+            if (it.hasNext()) {
+                heap.offer(new FeedCursor(it));
+            }
+        }
+        // 5. 跳过 offset 条，取 count 条（同一笔记重复出现只算一次）
+        Set<String> seen = new HashSet<>();
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(count);
+        int skipped = 0;
+        while (!heap.isEmpty() && page.size() < count) {
+            FeedCursor cursor = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = cursor.head;
+            if (cursor.advance()) {
+                heap.offer(cursor);
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(tuple);
+        }
+        return page;
+    }
+
+    /**
+     * 归并中一个来源的游标，按 时间倒序、id 倒序 排列
+     */
+    private static class FeedCursor implements Comparable<FeedCursor> {
+        private final Iterator<ZSetOperations.TypedTuple<String>> it;
+        private ZSetOperations.TypedTuple<String> head;
+
+        private FeedCursor(Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.it = it;
+            this.head = it.next();
+        }
+
+        private boolean advance() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            head = it.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(FeedCursor o) {
+            int c = Double.compare(o.head.getScore(), head.getScore());
+            return c != 0 ? c : o.head.getValue().compareTo(head.getValue());
+        }
+    }
+
+    private Map<Long, Blog> queryBlogsByIds(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+    }
+
+    private Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+    }
+
+    /**
+     * 批量填充笔记列表的作者信息和当前用户是否点赞
+     * 1. 作者：收集去重后的用户id，一次批量查询用户缓存，缓存中没有的用户一次批量查库
+     * 2. 点赞：一次 pipeline ZSCORE 所有笔记
+     */
+    private void hydrateBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 1. 作者信息
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheClient.queryAllWithPassThrough(
+                RedisConstants.CACHE_USER_KEY, userIds, UserDTO.class, this::queryUserDTOs,
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream().collect(Collectors.toMap(UserDTO::getId, user -> user, (a, b) -> a));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+        // 2. 是否点赞，用户未登录无需查询
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        String member = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(RedisConstants.BLOG_LIKED_KEY + blog.getId(), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 }
@@ -0,0 +1,279 @@
+package com.ueat.service.impl;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ueat.dto.Result;
+import com.ueat.dto.ShopReviewDTO;
+import com.ueat.entity.Shop;
+import com.ueat.entity.ShopType;
+import com.ueat.service.IShopRankService;
+import com.ueat.service.IShopService;
+import com.ueat.service.IShopTypeService;
+import com.ueat.utils.ShopRankDimension;
+import com.ueat.utils.SystemConstants;
+import com.ueat.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.SHOP_RANK_KEY;
+import static com.ueat.utils.RedisConstants.SHOP_REVIEWED_KEY;
+
+/**
+ * 店铺排行榜（口味 / 性价比 / 配送速度）
+ * 1. 评价、订单事件 ZINCRBY 到当天的分桶 rank:shop:维度:范围:yyyyMMdd，同时 ZINCRBY 到榜单 rank:shop:维度:范围，榜单实时生效
+ * 2. 定时把近 windowDays 天的分桶按 decay^天数 加权 ZUNIONSTORE 成榜单，旧的评价逐渐衰减，超出窗口的分桶自然过期
+ * 3. 查询榜单 ZREVRANGE，前 topSize 名缓存在本地，每次合并后失效
+ */
+@Slf4j
+@Service
+public class ShopRankServiceImpl implements IShopRankService {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    // 榜单统计的天数
+    @Value("${ueat.rank.window-days:7}")
+    private int windowDays;
+    // 每过一天分数乘以的衰减系数
+    @Value("${ueat.rank.decay:0.8}")
+    private double decay;
+    // 合并分桶、刷新本地缓存的间隔（秒）
+    @Value("${ueat.rank.refresh-interval:60}")
+    private long refreshInterval;
+    // 本地缓存的名次数
+    @Value("${ueat.rank.top-size:100}")
+    private int topSize;
+    // 每个订单计入性价比榜的分数
+    @Value("${ueat.rank.order-weight:0.1}")
+    private double orderWeight;
+    // 同一用户对同一店铺两次评价的最小间隔（天），不小于 windowDays 时同一用户在榜单窗口内只计一次
+    @Value("${ueat.rank.review-interval-days:30}")
+    private long reviewIntervalDays;
+
+    // 全部店铺的榜单范围
+    private static final String GLOBAL_SCOPE = "all";
+    // 评分的中间值，高于中间值加分，低于中间值减分
+    private static final int NEUTRAL_RATING = 3;
+    private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    // 榜单key -> 前 topSize 名的店铺id
+    private Cache<String, List<Long>> topCache;
+    private final ScheduledExecutorService refresher =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("shop-rank-refresh-", true));
+
+    @PostConstruct
+    private void init() {
+        topCache = Caffeine.newBuilder()
+                .maximumSize(1024)
+                .expireAfterWrite(refreshInterval, TimeUnit.SECONDS)
+                .build();
+        refresher.scheduleWithFixedDelay(this::refreshAll, 0, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        refresher.shutdownNow();
+    }
+
+    @Override
+    @Transactional
+    public Result review(ShopReviewDTO review) {
+        // 1. 校验评分
+        Map<ShopRankDimension, Integer> ratings = new EnumMap<>(ShopRankDimension.class);
+        ratings.put(ShopRankDimension.TASTE, review.getTaste());
+        ratings.put(ShopRankDimension.VALUE, review.getValue());
+        ratings.put(ShopRankDimension.DELIVERY, review.getDelivery());
+        for (Integer rating : ratings.values()) {
+            if (rating == null || rating < 1 || rating > 5) {
+                return Result.fail("评分必须是1~5分！");
+            }
+        }
+        // 2. 查询店铺（走店铺缓存），需要店铺类型
+        List<Shop> shops = review.getShopId() == null
+                ? Collections.emptyList()
+                : shopService.queryByIds(Collections.singletonList(review.getShopId()));
+        if (shops.isEmpty()) {
+            return Result.fail("店铺不存在！");
+        }
+        Shop shop = shops.get(0);
+        // 3. 每个用户对每个店铺在 reviewIntervalDays 天内只能评价一次，标记带有效期，不会无限增长
+        String reviewedKey = SHOP_REVIEWED_KEY + shop.getId() + ":" + UserHolder.getUser().getId();
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(reviewedKey, "1", reviewIntervalDays, TimeUnit.DAYS);
+        if (!Boolean.TRUE.equals(first)) {
+            return Result.fail("已经评价过该店铺！");
+        }
+        // 4. 更新评价数，失败时删除评价标记，用户可以重新评价
+        boolean updated;
+        try {
+            updated = shopService.update().setSql("comments = comments + 1").eq("id", shop.getId()).update();
+        } catch (RuntimeException e) {
+            stringRedisTemplate.delete(reviewedKey);
+            throw e;
+        }
+        if (!updated) {
+            stringRedisTemplate.delete(reviewedKey);
+            return Result.fail("店铺不存在！");
+        }
+        // 5. 事务提交后再累加到各维度的榜单；回滚时删除评价标记
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    ratings.forEach((dimension, rating) -> incr(conn, dimension, shop, rating - NEUTRAL_RATING));
+                    return null;
+                });
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    stringRedisTemplate.delete(reviewedKey);
+                }
+            }
+        });
+        return Result.ok();
+    }
+
+    /**
+     * 订单落库后计入性价比榜
+     * @param orderCounts 店铺id -> 订单数
+     */
+    @Override
+    public void recordOrders(Map<Long, Integer> orderCounts) {
+        if (orderCounts.isEmpty()) {
+            return;
+        }
+        List<Shop> shops = shopService.queryByIds(new ArrayList<>(orderCounts.keySet()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                incr(conn, ShopRankDimension.VALUE, shop, orderCounts.get(shop.getId()) * orderWeight);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Result queryRank(String dimension, Integer typeId, Integer current) {
+        ShopRankDimension rankDimension = ShopRankDimension.of(dimension);
+        if (rankDimension == null) {
+            return Result.fail("排行榜不存在！");
+        }
+        String key = rankKey(rankDimension, typeId == null ? GLOBAL_SCOPE : typeId.toString());
+        current = Math.max(current == null ? 1 : current, 1);
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE;
+        // 1. 前 topSize 名从本地缓存中取
+        List<Long> ids;
+        if (end <= topSize) {
+            List<Long> top = topCache.get(key, k -> range(k, 0, topSize - 1));
+            ids = from >= top.size() ? Collections.emptyList() : top.subList(from, Math.min(end, top.size()));
+        } else {
+            // 2. 之后的名次直接 ZREVRANGE
+            ids = range(key, from, end - 1);
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3. 按名次从店铺缓存批量查询
+        return Result.ok(shopService.queryByIds(ids));
+    }
+
+    /**
+     * 累加到当天的分桶和榜单，全部店铺和店铺所属类型各一份
+     */
+    private void incr(StringRedisConnection conn, ShopRankDimension dimension, Shop shop, double delta) {
+        String member = shop.getId().toString();
+        String today = LocalDate.now().format(BUCKET_FORMAT);
+        for (String scope : new String[]{GLOBAL_SCOPE, shop.getTypeId().toString()}) {
+            String bucketKey = rankKey(dimension, scope) + ":" + today;
+            conn.zIncrBy(bucketKey, delta, member);
+            // 分桶只在窗口内有用
+            conn.expire(bucketKey, TimeUnit.DAYS.toSeconds(windowDays + 1));
+            // 当天的权重是1，直接累加到榜单，下次合并前也能实时看到
+            conn.zIncrBy(rankKey(dimension, scope), delta, member);
+        }
+    }
+
+    /**
+     * 重新合并所有维度、所有范围的榜单
+     */
+    private void refreshAll() {
+        try {
+            List<String> scopes = new ArrayList<>();
+            scopes.add(GLOBAL_SCOPE);
+            for (ShopType type : shopTypeService.query().select("id").list()) {
+                scopes.add(type.getId().toString());
+            }
+            for (ShopRankDimension dimension : ShopRankDimension.values()) {
+                for (String scope : scopes) {
+                    refresh(rankKey(dimension, scope));
+                }
+            }
+        } catch (Exception e) {
+            log.error("店铺排行榜合并失败", e);
+        }
+    }
+
+    /**
+     * ZUNIONSTORE 近 windowDays 天的分桶，第 i 天前的分桶权重为 decay^i
+     */
+    private void refresh(String key) {
+        LocalDate today = LocalDate.now();
+        List<String> bucketKeys = new ArrayList<>(windowDays);
+        double[] weights = new double[windowDays];
+        for (int i = 0; i < windowDays; i++) {
+            bucketKeys.add(key + ":" + today.minusDays(i).format(BUCKET_FORMAT));
+            weights[i] = Math.pow(decay, i);
+        }
+        stringRedisTemplate.opsForZSet().unionAndStore(bucketKeys.get(0), bucketKeys.subList(1, bucketKeys.size()),
+                key, RedisZSetCommands.Aggregate.SUM, RedisZSetCommands.Weights.of(weights));
+        topCache.invalidate(key);
+    }
+
+    private List<Long> range(String key, long start, long end) {
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, start, end);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        return ids;
+    }
+
+    private String rankKey(ShopRankDimension dimension, String scope) {
+        return SHOP_RANK_KEY + dimension.key() + ":" + scope;
+    }
+}
@@ -1,34 +1,37 @@
 package com.ueat.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.codec.Base64;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.ueat.dto.CursorResult;
 import com.ueat.dto.Result;
 import com.ueat.entity.Shop;
 import com.ueat.mapper.ShopMapper;
 import com.ueat.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.ueat.utils.BloomFilter;
 import com.ueat.utils.CacheClient;
 import com.ueat.utils.RedisConstants;
-import com.ueat.utils.RedisData;
+import com.ueat.utils.ShopGeoIndex;
+import com.ueat.utils.ShopSearchIndex;
 import com.ueat.utils.SystemConstants;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -46,9 +49,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private BloomFilter shopBloomFilter;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
 
     @Override
     public Result queryById(Long id) {
+        // 布隆过滤器判断一定不存在的id，直接返回，不访问redis和数据库
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在！");
+        }
         // 缓存穿透
         // Shop shop = queryWithPassThrough(id);
         // lambda表达式 id2 -> getById(id2) 简写如下
@@ -56,7 +69,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //        queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         Shop shop = cacheClient.
-                queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS); // 设置逻辑过期时间为20s，方便测试
+                queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
 
         // 缓存击穿 - 互斥锁
         // Shop shop = queryWithMutex(id);
@@ -70,160 +83,137 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     /**
      * 缓存空值实现 - 缓存穿透
+     * 与 CacheClient 共用同一套编解码和本地缓存
      * @return
      */
     public Shop queryWithPassThrough(Long id) {
-        // 1. 从redis查缓存
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        // 2. 存在 直接返回 （isNotBlank 空字符串也是空值）
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 反序列化
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 3. 不存在
-        // 命中redis的是空值 （不是null就一定是空字符串）
-        if (shopJson != null) {
-            return null;
-        }
-        // 4. 根据id查数据库
-        Shop shop = getById(id);
-        // 5. 不存在 返回错误
-        if (shop == null) {
-            // 缓存穿透：将空值“”写入redis
-            stringRedisTemplate.opsForValue().set(shopKey, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        // 6. 存在 写入redis
-        stringRedisTemplate.opsForValue().set(shopKey, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 7. 返回
-        return shop;
+        return cacheClient.queryWithPassThrough(
+                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    // 线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      * 缓存击穿 - 逻辑过期实现
+     * 与 CacheClient 共用同一套编解码和本地缓存
      * @param id
      * @return
      */
     public Shop queryWithLogicalExpire(Long id) {
-        // 1. 从redis查缓存
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        // 2. 不存在/未命中，直接返回null(说明访问的数据不在预热范围内)
-        if (StrUtil.isBlank(shopJson)) {
-            return null;
-        }
-        // Redis命中，判断过期时间，需要把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        // 反序列化 object 类型变量的时候，由于没有指定具体类型，做反序列化时会变成JSONObject类
-        JSONObject data = (JSONObject)redisData.getData();
-        Shop shop = JSONUtil.toBean(data, Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 再判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            // 未过期 直接返回店铺信息
-            return shop;
-        }
-        // 已过期 需要缓存重建
-        // 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-
-        // 获取锁成功 开启独立线程执行缓存重建 同样也返回过期店铺信息 释放互斥锁
-        if (isLock) {
-            // 获取成功应该再次检测redis是否过期 DoubleCheck 存在则无需缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 调用缓存预热代码来更新缓存
-                    this.saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    unlock(lockKey);
-                }
-            });
-        }
-
-        // 获取锁失败 直接返回过期的店铺信息
-        return shop;
+        return cacheClient.queryWithLogicalExpire(
+                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
     }
 
     /**
      * 互斥锁实现 - 缓存击穿
+     * 本实例内同一个店铺只有一个线程抢互斥锁并查库，其他线程等待它的结果，不再休眠递归重试
      * @param id
      * @return
      */
     public Shop queryWithMutex(Long id) {
-        // 1. 从redis查缓存
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(shopKey);
-        // 2. 存在 直接返回 （isNotBlank 空字符串也是空值）
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 反序列化
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 3. 不存在
-        // 命中redis的是空值 （不是null就一定是空字符串）
-        if (shopJson != null) {
-            return null;
-        }
-        // 没命中redis（包括命中了空值），则查数据库
-        // -------------实现缓存重建------------
-        // 获取互斥锁
-        String lockKey = "lock:shop:" + id;
-        Shop shop = null;
-        // 由于无论是否执行成功，都要释放锁，因此获取锁，释放锁放在同一个try-catch-finally里实现
-        try {
-            boolean isLock = tryLock(lockKey);
-            // 判断是否获取成功
-            // 失败则休眠并重试
-            if (!isLock) {
-                Thread.sleep(50);
-                // 递归重试
-                return queryWithMutex(id);
-            }
-            // 成功 检测缓存是否存在（避免上一个thread已经完成重构了，接下来的thread还要重新构建缓存，double check）
-            // 查询数据库
-            // 4. 根据id查数据库
-            shop = getById(id);
-            // 模拟重建缓存的延时
-            Thread.sleep(200);
-            // 5. 不存在 返回错误
-            if (shop == null) {
-                // 缓存穿透：将空值“”写入redis
-                stringRedisTemplate.opsForValue().set(shopKey, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            // 6. 存在 写入redis
-            stringRedisTemplate.opsForValue().set(shopKey, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 释放互斥锁
-            unlock(lockKey);
+        return cacheClient.queryWithMutex(
+                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 类型和坐标是 GEO 索引必需的
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return Result.fail("店铺类型和坐标不能为空");
         }
-        // 7. 返回
-        return shop;
+        // 1. 写入数据库
+        save(shop);
+        // 2. 写入布隆过滤器，之后才能查询到
+        shopBloomFilter.add(shop.getId());
+        // 3. 写入 GEO 索引
+        shopGeoIndex.add(shop);
+        // 4. 通知所有实例更新搜索索引
+        shopSearchIndex.publish(shop);
+        // 5. 返回店铺id
+        return Result.ok(shop.getId());
     }
 
     @Override
     @Transactional
     public Result update(Shop shop) {
-        // 1. 更新数据库
-        updateById(shop);
-        // 2. 删除缓存
         Long shopId = shop.getId();
         if (shopId == null) {
             return Result.fail("商店ID不能为空");
         }
-        String shopKey = RedisConstants.CACHE_SHOP_KEY + shop.getId();
-        stringRedisTemplate.delete(shopKey);
+        // 修改前的店铺，用于判断坐标和类型是否变化
+        Shop old = getById(shopId);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
+        // 1. 更新数据库
+        updateById(shop);
+        // 2. 事务提交后再同步缓存和索引，回滚时不会把未提交的数据写入 redis
+        //    提交前写入的话，其他实例的缓存重建也可能在提交前读到旧数据并覆盖回去
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                syncAfterUpdate(old, shop);
+            }
+        });
+        return Result.ok();
+    }
+
+    /**
+     * 店铺修改提交后，用提交后的数据改写缓存，同步 GEO 和搜索索引
+     * @param old 修改前的店铺
+     * @param shop 修改的字段，为null的字段表示没有修改
+     */
+    private void syncAfterUpdate(Shop old, Shop shop) {
+        Long shopId = old.getId();
+        String key = RedisConstants.CACHE_SHOP_KEY + shopId;
+        // 1. 重新查询提交后的店铺
+        long begin = System.currentTimeMillis();
+        Shop fresh = getById(shopId);
+        if (fresh == null) {
+            // 提交后又被删除了，清除缓存
+            cacheClient.delete(key);
+            return;
+        }
+        // 2. 用最新数据改写缓存，同时通知所有实例清除本地缓存
+        //    店铺缓存是逻辑过期的，未命中直接返回空，不能删除
+        cacheClient.setWithLogicalExpire(key, fresh, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS,
+                System.currentTimeMillis() - begin);
+        cacheClient.invalidateLocal(key);
+        // 3. 坐标或类型变化时同步 GEO 索引
+        shopGeoIndex.update(old, fresh);
+        // 4. 名称、商圈、地址变化时通知所有实例更新搜索索引
+        if (shop.getName() != null || shop.getArea() != null || shop.getAddress() != null) {
+            shopSearchIndex.publish(new Shop().setId(shopId)
+                    .setName(fresh.getName()).setArea(fresh.getArea()).setAddress(fresh.getAddress()));
+        }
         return Result.ok();
     }
 
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 1. 没有关键字，按主键分页
+        if (StrUtil.isBlank(name)) {
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 索引还没建好，走数据库
+        if (!shopSearchIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like("name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 3. 查询倒排索引，按相关度从店铺缓存批量查询
+        List<Long> ids = shopSearchIndex.search(name, current, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(queryByIds(ids));
+    }
+
+    @Override
+    public Result suggestShopName(String prefix) {
+        return Result.ok(shopSearchIndex.suggest(prefix, SystemConstants.MAX_PAGE_SIZE));
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1 判断是否需要根据坐标查询
@@ -254,52 +244,133 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 截取 from ~ end 的数据（默认从0开始）
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distances = new HashMap<>(list.size());
+        Map<Long, Double> distances = new HashMap<>(list.size());
         list.stream().skip(from).forEach(result->{
-            String shopId = result.getContent().getName();
-            ids.add(Long.valueOf(shopId));
-            Distance distance = result.getDistance();
-            distances.put(shopId.toString(), distance);
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            distances.put(shopId, result.getDistance().getValue());
         });
-        // 5 查询店铺
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("Order By Field(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distances.get(shop.getId().toString()).getValue());
-        }
+        // 5 从店铺缓存中批量查询，按距离顺序返回
         // 6 返回
-        return Result.ok(shops);
+        return Result.ok(hydrateShops(ids, distances));
+    }
+
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor) {
+        // 1. 解析游标：类型id,经度,纬度,上一页最后一个店铺的距离,上一页最后一个店铺的id，后续页的类型和坐标以游标为准
+        Double lastDist = null;
+        String lastId = null;
+        if (StrUtil.isNotBlank(cursor)) {
+            try {
+                String[] parts = Base64.decodeStr(cursor).split(",");
+                typeId = Integer.valueOf(parts[0]);
+                x = Double.valueOf(parts[1]);
+                y = Double.valueOf(parts[2]);
+                lastDist = Double.valueOf(parts[3]);
+                lastId = parts[4];
+            } catch (Exception e) {
+                return Result.fail("无效的游标");
+            }
+        }
+        if (typeId == null || x == null || y == null) {
+            return Result.fail("店铺类型和坐标不能为空");
+        }
+        // 2. 搜索结果存入临时 zset（分数为距离），同一位置的后续翻页和其他用户在有效期内直接复用
+        String resultKey = RedisConstants.SHOP_GEO_RESULT_KEY + typeId + ":" + x + ":" + y;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(resultKey))) {
+            // geosearchstore result key bylonlat x y byradius 5000 m storedist
+            stringRedisTemplate.opsForGeo().searchAndStore(RedisConstants.SHOP_GEO_KEY + typeId, resultKey,
+                    GeoReference.fromCoordinate(x, y), new Distance(5000),
+                    RedisGeoCommands.GeoSearchStoreCommandArgs.newGeoSearchStoreArgs().storeDistance());
+            stringRedisTemplate.expire(resultKey, RedisConstants.SHOP_GEO_RESULT_TTL, TimeUnit.SECONDS);
+        }
+        // 3. 从上一页最后一个店铺之后取一页（多取一个用来判断是否还有下一页）
+        // 分数 >= lastDist，跳过距离相同且id不大于 lastId 的店铺（zset 中分数相同的成员按字典序排列）
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        double min = lastDist == null ? 0 : lastDist;
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(pageSize + 1);
+        long offset = 0;
+        while (page.size() <= pageSize) {
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(resultKey, min, Double.POSITIVE_INFINITY, offset, pageSize + 1);
+            if (tuples == null || tuples.isEmpty()) {
+                break;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (lastDist != null && tuple.getScore() == min && tuple.getValue().compareTo(lastId) <= 0) {
+                    continue;
+                }
+                page.add(tuple);
+                if (page.size() > pageSize) {
+                    break;
+                }
+            }
+            // 只有距离相同的店铺很多时才需要继续往后取
+            if (tuples.size() <= pageSize) {
+                break;
+            }
+            offset += tuples.size();
+        }
+        boolean hasMore = page.size() > pageSize;
+        if (hasMore) {
+            page = page.subList(0, pageSize);
+        }
+        if (page.isEmpty()) {
+            return Result.ok(new CursorResult(Collections.emptyList(), null));
+        }
+        // 4. 从店铺缓存中批量查询，按距离顺序返回
+        List<Long> ids = new ArrayList<>(page.size());
+        Map<Long, Double> distances = new HashMap<>(page.size());
+        for (ZSetOperations.TypedTuple<String> tuple : page) {
+            Long shopId = Long.valueOf(tuple.getValue());
+            ids.add(shopId);
+            distances.put(shopId, tuple.getScore());
+        }
+        List<Shop> shops = hydrateShops(ids, distances);
+        // 5. 下一页的游标
+        ZSetOperations.TypedTuple<String> last = page.get(page.size() - 1);
+        String next = hasMore
+                ? Base64.encodeUrlSafe(typeId + "," + x + "," + y + "," + last.getScore() + "," + last.getValue())
+                : null;
+        return Result.ok(new CursorResult(shops, next));
     }
 
     /**
-     * 利用单元测试来实现缓存预热（暂时没有工具平台来做这坚守）
+     * 按 ids 的顺序从店铺缓存批量查询店铺，只有缓存中没有的店铺才查询数据库，不存在的店铺跳过
+     * 返回的对象与本地缓存共享，不要修改
      */
-    public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
-        // 查询店铺数据
-        Shop shop = getById(id);
-        // 模拟缓存重建的延迟
-        Thread.sleep(50);
-        // 封装过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        // 设置逻辑过期时间
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 写入redis(永久有效，不设置实际过期时间)
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    @Override
+    public List<Shop> queryByIds(List<Long> ids) {
+        return cacheClient.queryAllWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                this::queryShopsByIds, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
     }
 
     /**
-     * 基于setnx自定义互斥锁，采用互斥锁方案解决缓存击穿(热点key问题)
-     * @param key
-     * @return
+     * 批量查询店铺并填充距离，缓存中的对象是共享的，填充距离前先复制一份
      */
-    private boolean tryLock(String key) {
-        // flag是包装类，可能有空值，return会做拆箱转基本数据类型，如果为空值则会报空指针
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private List<Shop> hydrateShops(List<Long> ids, Map<Long, Double> distances) {
+        List<Shop> cached = queryByIds(ids);
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached) {
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distances.get(shop.getId()));
+            shops.add(copy);
+        }
+        return shops;
+    }
+
+    private Map<Long, Shop> queryShopsByIds(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, shop -> shop));
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 利用单元测试来实现缓存预热（暂时没有工具平台来做这坚守）
+     */
+    public void saveShop2Redis(Long id, Long expireSeconds) {
+        // 查询店铺数据，写入redis(永久有效，不设置实际过期时间，只设置逻辑过期时间)
+        long begin = System.currentTimeMillis();
+        Shop shop = getById(id);
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS,
+                System.currentTimeMillis() - begin);
     }
 }
@@ -1,50 +1,135 @@
 package com.ueat.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ueat.dto.Result;
+import com.ueat.dto.ShopTypeSnapshot;
+import com.ueat.dto.UserDTO;
 import com.ueat.entity.ShopType;
 import com.ueat.mapper.ShopTypeMapper;
 import com.ueat.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.ueat.utils.RedisConstants;
+import com.ueat.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.ueat.utils.RedisConstants.SHOP_TYPE_CHANNEL;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺类型很少变化，整个列表以不可变快照放在内存中，查询不访问 redis 和数据库
+ * 1. 修改店铺类型后发布 shop:type:update，所有实例重新加载
+ * 2. 定期重新读库计算校验和，和当前版本不同才替换快照，兜底错过的通知和直接改库
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IShopTypeService typeService;
+    private RedisMessageListenerContainer listenerContainer;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 校验和比较的间隔（秒），<= 0 时只依赖更新通知
+    @Value("${ueat.shop-type.check-interval:60}")
+    private long checkInterval;
+    // 可以修改店铺类型的用户id，逗号分隔
+    @Value("${ueat.shop-type.admin-user-ids:}")
+    private String adminUserIds;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    private final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("shop-type-check-", true));
+
+    @PostConstruct
+    private void init() {
+        refresh();
+        listenerContainer.addMessageListener((message, pattern) -> refresh(), new ChannelTopic(SHOP_TYPE_CHANNEL));
+        if (checkInterval > 0) {
+            checker.scheduleWithFixedDelay(this::refresh, checkInterval, checkInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        checker.shutdownNow();
+    }
+
+    @Override
+    public ShopTypeSnapshot queryShopType() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            // 启动时加载失败（例如数据库暂时不可用），查询时读库重试
+            refresh();
+            current = snapshot;
+            if (current == null) {
+                throw new IllegalStateException("店铺类型加载失败");
+            }
+        }
+        return current;
+    }
 
     @Override
-    public Result queryShopType() {
-        // List<ShopType> typeList = typeService
-        //         .query().orderByAsc("sort").list();
-
-        // 1. 从redis中查询类型列表缓存
-        String listJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_LIST);
-        // 2. 查到则直接返回
-        if (listJson != null) {
-            return Result.ok(JSONUtil.toList(listJson, ShopType.class));
+    public Result updateShopType(ShopType shopType) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !StrUtil.splitTrim(adminUserIds, ',').contains(user.getId().toString())) {
+            return Result.fail("没有修改店铺类型的权限");
+        }
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型ID不能为空");
+        }
+        // 1. 更新数据库
+        updateById(shopType);
+        // 2. 通知所有实例重新加载快照
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANNEL, shopType.getId().toString());
+        return Result.ok();
+    }
+
+    /**
+     * 读库生成新快照，校验和与当前版本相同时保留旧快照
+     */
+    private synchronized void refresh() {
+        try {
+            List<ShopType> typeList = query().orderByAsc("sort").list();
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(typeList));
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            long version = crc.getValue();
+            ShopTypeSnapshot current = snapshot;
+            if (current != null && current.getVersion() == version) {
+                return;
+            }
+            snapshot = new ShopTypeSnapshot(Collections.unmodifiableList(typeList), body, version,
+                    "\"" + Long.toHexString(version) + "\"");
+            log.info("店铺类型快照已更新，共 {} 个类型，版本: {}", typeList.size(), Long.toHexString(version));
+        } catch (JsonProcessingException e) {
+            log.error("店铺类型序列化失败", e);
+        } catch (Exception e) {
+            log.error("店铺类型快照刷新失败", e);
         }
-        // 3. 没查到
-        // 4. 查询数据库
-        List<ShopType> typeList = typeService.query().orderByAsc("sort").list();
-        // 5. 查到后写入redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_LIST, JSONUtil.toJsonStr(typeList));
-        return Result.ok(typeList);
     }
 }
@@ -1,34 +1,50 @@
 package com.ueat.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RuntimeUtil;
 import com.ueat.dto.Result;
+import com.ueat.entity.Voucher;
 import com.ueat.entity.VoucherOrder;
 import com.ueat.mapper.VoucherOrderMapper;
 import com.ueat.service.ISeckillVoucherService;
+import com.ueat.service.IShopRankService;
 import com.ueat.service.IVoucherOrderService;
+import com.ueat.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.ueat.utils.IdGenerator;
 import com.ueat.utils.RedisIdWorker;
 import com.ueat.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -41,92 +57,162 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonClient redissonClient;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private IShopRankService shopRankService;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setResultType(List.class);
     }
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
     private static final String QUEUE_NAME = "stream.orders";
+    private static final String GROUP_NAME = "g1";
+    // 消费线程在启动时就开始处理 pending-list，不能等第一次秒杀请求再通过 AopContext 获取代理对象
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    private ExecutorService seckillOrderExecutor;
+    private ScheduledExecutorService pendingReaper;
+
+    // 每次 XREADGROUP 最多读取的消息数，<= 1 时退化为逐条下单
+    @Value("${ueat.order.consumer.batch-size:100}")
+    private int batchSize;
+    // 攒批的最长等待时间（毫秒），到时即使没攒满也立即落库
+    @Value("${ueat.order.consumer.max-linger:50}")
+    private long maxLinger;
+    // 每个实例的消费线程数，每个线程使用独立的消费者名
+    @Value("${ueat.order.consumer.workers:2}")
+    private int workers;
+    // pending 消息空闲超过该时间（毫秒）即认为原消费者已失效，由 reaper 认领
+    @Value("${ueat.order.consumer.claim-idle:60000}")
+    private long claimIdle;
+    // reaper 的扫描间隔（毫秒）
+    @Value("${ueat.order.consumer.reap-interval:30000}")
+    private long reapInterval;
+    // 幂等落库：依赖 uk_user_voucher 唯一索引去重，不再加 Redisson 锁、不再 count 查询
+    @Value("${ueat.order.consumer.idempotent:true}")
+    private boolean idempotent;
+
     @PostConstruct
     private void init() {
         // 初始化 Redis Stream 和消费者组
         try {
-            stringRedisTemplate.opsForStream().createGroup(QUEUE_NAME, ReadOffset.from("$"), "g1");
-            log.info("消费者组 'g1' 初始化成功");
+            stringRedisTemplate.opsForStream().createGroup(QUEUE_NAME, ReadOffset.from("$"), GROUP_NAME);
+            log.info("消费者组 '{}' 初始化成功", GROUP_NAME);
         } catch (Exception e) {
-            log.warn("消费者组 'g1' 已存在或初始化失败: {}", e.getMessage());
+            log.warn("消费者组 '{}' 已存在或初始化失败: {}", GROUP_NAME, e.getMessage());
+        }
+        // 消费者名由 主机名-进程号-序号 组成，多实例、多线程之间互不冲突
+        String consumerPrefix = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        int n = Math.max(workers, 1);
+        seckillOrderExecutor = Executors.newFixedThreadPool(n, ThreadUtil.newNamedThreadFactory("seckill-order-", false));
+        for (int i = 0; i < n; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerPrefix + "-" + i));
         }
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        pendingReaper = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("seckill-order-reaper-", true));
+        pendingReaper.scheduleWithFixedDelay(
+                new PendingReaper(consumerPrefix + "-reaper"), 0, reapInterval, TimeUnit.MILLISECONDS);
+        log.info("订单消费者已启动，消费者前缀: {}，线程数: {}", consumerPrefix, n);
     }
 
     @PreDestroy
     private void shutdown() {
-        SECKILL_ORDER_EXECUTOR.shutdown();
+        pendingReaper.shutdownNow();
+        seckillOrderExecutor.shutdown();
         try {
-            if (!SECKILL_ORDER_EXECUTOR.awaitTermination(5, TimeUnit.SECONDS)) {
-                SECKILL_ORDER_EXECUTOR.shutdownNow();
+            if (!seckillOrderExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                seckillOrderExecutor.shutdownNow();
             }
-            log.info("SECKILL_ORDER_EXECUTOR 已关闭");
+            log.info("seckillOrderExecutor 已关闭");
         } catch (InterruptedException e) {
             log.error("关闭线程池失败: {}", e.getMessage());
         }
     }
 
     private class VoucherOrderHandler implements Runnable {
+        private final String consumerName;
+
+        private VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
-                    );
-                    if (list == null || list.isEmpty()) {
+                    List<MapRecord<String, Object, Object>> list = readBatch();
+                    if (list.isEmpty()) {
                         continue;
                     }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, "g1", record.getId());
+                    handleRecords(list);
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
                     handlePendingList();
                 }
             }
-            log.info("VoucherOrderHandler 已停止");
+            log.info("VoucherOrderHandler {} 已停止", consumerName);
+        }
+
+        /**
+         * 读取一批订单消息：先阻塞等待首批消息，再在 maxLinger 内继续攒批，直到攒满 batchSize 或超时
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            int count = Math.max(batchSize, 1);
+            List<MapRecord<String, Object, Object>> first = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(GROUP_NAME, consumerName),
+                    StreamReadOptions.empty().count(count).block(Duration.ofSeconds(2)),
+                    StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
+            );
+            if (first == null || first.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (first.size() >= count || maxLinger <= 0) {
+                return first;
+            }
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(first);
+            long deadline = System.currentTimeMillis() + maxLinger;
+            while (batch.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> more = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP_NAME, consumerName),
+                        StreamReadOptions.empty().count(count - batch.size()).block(Duration.ofMillis(remaining)),
+                        StreamOffset.create(QUEUE_NAME, ReadOffset.lastConsumed())
+                );
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
         }
 
         private void handlePendingList() {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(Math.max(batchSize, 1)),
                             StreamOffset.create(QUEUE_NAME, ReadOffset.from("0"))
                     );
                     if (list == null || list.isEmpty()) {
                         log.info("Pending List 处理完成");
                         break;
                     }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, "g1", record.getId());
+                    handleRecords(list);
                 } catch (Exception e) {
                     log.error("处理 Pending List 异常", e);
                     if (e.getCause() instanceof IllegalStateException && e.getMessage().contains("LettuceConnectionFactory")) {
@@ -137,8 +223,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                             && e.getCause().getMessage().contains("NOGROUP")) {
                         log.error("流或消费者组不存在: {}", e.getMessage());
                         try {
-                            stringRedisTemplate.opsForStream().createGroup(QUEUE_NAME, ReadOffset.from("$"), "g1");
-                            log.info("消费者组 'g1' 创建成功");
+                            stringRedisTemplate.opsForStream().createGroup(QUEUE_NAME, ReadOffset.from("$"), GROUP_NAME);
+                            log.info("消费者组 '{}' 创建成功", GROUP_NAME);
                         } catch (Exception ex) {
                             log.error("创建消费者组失败: {}", ex.getMessage());
                         }
@@ -157,19 +243,151 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
 
+    /**
+     * 处理一批消息：批量模式下一次事务落库，并用一次 XACK 确认整批；整批无法落库时回滚并逐单落库
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+        if (batchSize <= 1) {
+            List<VoucherOrder> saved = new ArrayList<>(list.size());
+            for (MapRecord<String, Object, Object> record : list) {
+                VoucherOrder voucherOrder = toVoucherOrder(record);
+                if (handleVoucherOrder(voucherOrder)) {
+                    saved.add(voucherOrder);
+                }
+                stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, record.getId());
+            }
+            recordShopRank(saved);
+            return;
+        }
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        RecordId[] recordIds = new RecordId[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            voucherOrders.add(toVoucherOrder(list.get(i)));
+            recordIds[i] = list.get(i).getId();
+        }
+        List<VoucherOrder> saved = proxy.createVoucherOrderBatch(voucherOrders);
+        if (saved == null) {
+            log.warn("本批 {} 个订单无法整批落库，改为逐单落库", voucherOrders.size());
+            saved = new ArrayList<>(voucherOrders.size());
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                if (proxy.createVoucherOrderIdempotent(voucherOrder)) {
+                    saved.add(voucherOrder);
+                }
+            }
+        }
+        stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, recordIds);
+        recordShopRank(saved);
+    }
+
+    /**
+     * 订单计入店铺的性价比排行榜，按店铺汇总后一次 pipeline 写入，失败不影响下单
+     * @param voucherOrders 本次新落库的订单，库存不足、重复的订单不计入
+     */
+    private void recordShopRank(List<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Long, Long> countOfVoucher = voucherOrders.stream()
+                    .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+            Map<Long, Integer> orderCounts = new HashMap<>();
+            for (Voucher voucher : voucherService.listByIds(countOfVoucher.keySet())) {
+                orderCounts.merge(voucher.getShopId(), countOfVoucher.get(voucher.getId()).intValue(), Integer::sum);
+            }
+            shopRankService.recordOrders(orderCounts);
+        } catch (Exception e) {
+            log.error("订单计入店铺排行榜失败", e);
+        }
+    }
+
+    private VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        return BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+    }
+
+    /**
+     * 回收失效消费者的 pending 消息：XPENDING 按消息id分页扫描整个 pending-list，找出空闲超过 claimIdle 的消息，
+     * XCLAIM 到自己名下处理并 ACK，最后删除已经没有 pending 消息的失效消费者
+     */
+    private class PendingReaper implements Runnable {
+        private final String consumerName;
+
+        private PendingReaper(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int count = Math.max(batchSize, 1);
+                // 空闲的消息可能排在刚投递的消息后面，不能只看最早的一页
+                Range<String> range = Range.unbounded();
+                while (!Thread.currentThread().isInterrupted()) {
+                    PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                            .pending(QUEUE_NAME, GROUP_NAME, range, count);
+                    if (pendingMessages.isEmpty()) {
+                        break;
+                    }
+                    List<RecordId> idleIds = new ArrayList<>();
+                    for (PendingMessage pendingMessage : pendingMessages) {
+                        if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdle) {
+                            idleIds.add(pendingMessage.getId());
+                        }
+                    }
+                    if (!idleIds.isEmpty()) {
+                        // XCLAIM 带 min-idle-time，多个实例同时认领同一条消息时只有一个能成功
+                        List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream().claim(
+                                QUEUE_NAME, GROUP_NAME, consumerName, Duration.ofMillis(claimIdle),
+                                idleIds.toArray(new RecordId[0]));
+                        if (claimed != null && !claimed.isEmpty()) {
+                            log.warn("认领失效消费者的订单消息 {} 条", claimed.size());
+                            handleRecords(claimed);
+                        }
+                    }
+                    if (pendingMessages.size() < count) {
+                        break;
+                    }
+                    // 下一页从本页最后一条消息的下一个id开始
+                    RecordId last = pendingMessages.get(pendingMessages.size() - 1).getId();
+                    range = Range.rightUnbounded(Range.Bound.inclusive(
+                            last.getTimestamp() + "-" + (last.getSequence() + 1)));
+                }
+                removeDeadConsumers();
+            } catch (Exception e) {
+                log.error("回收 pending 消息异常", e);
+            }
+        }
+
+        private void removeDeadConsumers() {
+            StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(QUEUE_NAME, GROUP_NAME);
+            consumers.forEach(consumer -> {
+                // 存活的消费者每 2 秒就会 XREADGROUP 一次，空闲时间不会超过 claimIdle
+                if (consumer.pendingCount() == 0 && consumer.idleTimeMs() >= claimIdle) {
+                    stringRedisTemplate.opsForStream().deleteConsumer(QUEUE_NAME, Consumer.from(GROUP_NAME, consumer.consumerName()));
+                    log.info("删除失效消费者: {}", consumer.consumerName());
+                }
+            });
+        }
+    }
+
     /**
      * 异步下单
+     * @return 订单是否落库
      */
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
+    private boolean handleVoucherOrder(VoucherOrder voucherOrder) {
+        if (idempotent) {
+            // seckill.lua 已经原子地校验了库存和一人一单，这里只需保证重投递时不重复落库
+            return proxy.createVoucherOrderIdempotent(voucherOrder);
+        }
         Long userId = voucherOrder.getUserId();
         RLock lock = redissonClient.getLock("lock:order:" + userId);
         boolean isLock = lock.tryLock();
         if (!isLock) {
             log.error("不允许重复下单，用户 ID: {}", userId);
-            return;
+            return false;
         }
         try {
-            proxy.createVoucherOrderByVoucherOrderId(voucherOrder);
+            return proxy.createVoucherOrderByVoucherOrderId(voucherOrder);
         } finally {
             lock.unlock();
         }
@@ -177,24 +395,36 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     /**
      * 基于 Redis Stream 消息队列实现秒杀下单
+     * 库存校验、一人一单、发送消息都在 seckill.lua 中完成，一次 redis 往返
+     * 使用 RedisIdWorker 时订单id也在脚本内生成；其他 IdGenerator 在本地生成好id再传给脚本
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
-
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
-        int r = result.intValue();
+
+        List<?> result;
+        if (idGenerator instanceof RedisIdWorker) {
+            RedisIdWorker redisIdWorker = (RedisIdWorker) idGenerator;
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(),
+                    redisIdWorker.counterKey("order"), String.valueOf(redisIdWorker.timestampBase()), ""
+            );
+        } else {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(),
+                    "", "", String.valueOf(idGenerator.nextId("order"))
+            );
+        }
+        int r = ((Long) result.get(0)).intValue();
         if (r != 0) {
             return Result.fail(r == 1 ? "库存不足" : "不允许重复下单");
         }
 
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        return Result.ok(orderId);
+        return Result.ok(Long.valueOf((String) result.get(1)));
     }
 
     @Transactional
@@ -214,7 +444,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
 
         VoucherOrder order = new VoucherOrder();
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
         order.setId(orderId);
         order.setUserId(userId);
         order.setVoucherId(voucherId);
@@ -223,12 +453,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     @Transactional
-    public void createVoucherOrderByVoucherOrderId(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrderByVoucherOrderId(VoucherOrder voucherOrder) {
         Long userId = voucherOrder.getUserId(); // 修正：使用 userId 而非 getId()
         int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
         if (count > 0) {
             log.error("用户 {} 已下过订单", userId);
-            return;
+            return false;
         }
 
         boolean success = seckillVoucherService.update()
@@ -237,9 +467,85 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success) {
             log.error("库存不足，优惠券 ID: {}", voucherOrder.getVoucherId());
-            return;
+            return false;
         }
         save(voucherOrder);
         log.info("订单保存成功，订单 ID: {}", voucherOrder.getId());
+        return true;
+    }
+
+    /**
+     * 幂等异步下单：先扣库存再 INSERT IGNORE，只有重投递的重复订单才需要把库存加回去
+     * @return 订单是否落库，库存不足或重复订单返回false
+     */
+    @Override
+    @Transactional
+    public boolean createVoucherOrderIdempotent(VoucherOrder voucherOrder) {
+        Long voucherId = voucherOrder.getVoucherId();
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherId).gt("stock", 0)
+                .update();
+        if (!success) {
+            log.error("库存不足，优惠券 ID: {}", voucherId);
+            return false;
+        }
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
+            log.error("用户 {} 已下过订单", voucherOrder.getUserId());
+            seckillVoucherService.update().setSql("stock = stock + 1").eq("voucher_id", voucherId).update();
+            return false;
+        }
+        log.info("订单保存成功，订单 ID: {}", voucherOrder.getId());
+        return true;
+    }
+
+    /**
+     * 批量异步下单：先跳过已经落库的重投递订单，每个优惠券一次多行 INSERT IGNORE + 一次按实际插入数扣减库存
+     * 库存不足或有订单被唯一索引忽略（无法确定是哪几单）时整批回滚，由调用方逐单落库，不能静默丢单
+     * @return 本批新落库的订单，整批回滚时返回null
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1. 批内去重，同一用户同一优惠券只保留一单
+        Map<String, VoucherOrder> orders = new LinkedHashMap<>(voucherOrders.size() * 2);
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            orders.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+        // 2. 跳过 pending-list 重投递的、已经落库的订单：select id from tb_voucher_order where id in (...)
+        List<Long> orderIds = orders.values().stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> persisted = query().select("id").in("id", orderIds).list().stream()
+                .map(VoucherOrder::getId).collect(Collectors.toSet());
+        // 3. 按优惠券分组
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = orders.values().stream()
+                .filter(voucherOrder -> !persisted.contains(voucherOrder.getId()))
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> saved = new ArrayList<>(orderIds.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            int n = entry.getValue().size();
+            // 4. 先多行 INSERT IGNORE，再按实际插入数扣减库存，同一个事务中完成
+            int inserted = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (inserted < n) {
+                log.warn("优惠券 {} 有 {} 个订单被唯一索引忽略，整批回滚", voucherId, n - inserted);
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return null;
+            }
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", voucherId).ge("stock", n)
+                    .update();
+            if (!success) {
+                log.warn("库存不足，优惠券 ID: {}，本批订单数: {}，整批回滚", voucherId, n);
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return null;
+            }
+            saved.addAll(entry.getValue());
+        }
+        log.info("批量保存订单成功，订单数: {}，跳过已落库订单: {}", saved.size(), persisted.size());
+        return saved;
     }
-}
\ No newline at end of file
+}
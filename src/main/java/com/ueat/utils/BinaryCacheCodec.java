@@ -0,0 +1,199 @@
+package com.ueat.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码，按字段类型逐个写入，不写字段名
+ * 格式：magic(1) + version(1) + 逻辑过期时间毫秒(8，没有逻辑过期时为0) + 重建耗时毫秒(4) + schema指纹(4) + 字段
+ * 每个字段：是否为空(1) + 值（Long 8、Integer 4、Double 8、Boolean 1、String 长度4+UTF-8、LocalDateTime 秒8+纳秒4）
+ * 不以 magic 开头的数据是旧的 json 格式，交给 JsonCacheCodec 解码；含有不支持字段类型的对象也用 json 编码
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCA;
+    // 版本不一致的数据当作没有缓存
+    private static final byte VERSION = 2;
+    private static final int HEADER_LENGTH = 18;
+
+    private final CacheCodec fallback = new JsonCacheCodec();
+    // 每个类的字段布局只反射一次
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value) {
+        return encode(value, 0L, 0);
+    }
+
+    @Override
+    public byte[] encode(RedisData redisData) {
+        Object value = redisData.getData();
+        if (value == null || !schemaOf(value.getClass()).supported) {
+            return fallback.encode(redisData);
+        }
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        return encode(value, redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli(), (int) delta);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return fallback.decode(bytes, type);
+        }
+        return read(ByteBuffer.wrap(bytes), type);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return fallback.decodeWithExpire(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        RedisData redisData = new RedisData();
+        // 过期时间和重建耗时在固定位置，不需要解析数据就能拿到
+        long expireMillis = buffer.getLong(2);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneOffset.UTC));
+        redisData.setDelta((long) buffer.getInt(10));
+        redisData.setData(read(buffer, type));
+        return redisData;
+    }
+
+    private byte[] encode(Object value, long expireMillis, int delta) {
+        Schema schema = schemaOf(value.getClass());
+        if (!schema.supported) {
+            return fallback.encode(value);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(expireMillis);
+            out.writeInt(delta);
+            out.writeInt(schema.fingerprint);
+            for (Field field : schema.fields) {
+                writeField(out, field.getType(), field.get(value));
+            }
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("缓存数据编码失败: " + value.getClass().getName(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private <R> R read(ByteBuffer buffer, Class<R> type) {
+        Schema schema = schemaOf(type);
+        if (buffer.get(1) != VERSION || buffer.getInt(14) != schema.fingerprint) {
+            // 类的字段变了，旧数据按新布局解码会错位，当作没有缓存
+            return null;
+        }
+        buffer.position(HEADER_LENGTH);
+        R r = ReflectUtil.newInstance(type);
+        try {
+            for (Field field : schema.fields) {
+                field.set(r, readField(buffer, field.getType()));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("缓存数据解码失败: " + type.getName(), e);
+        }
+        return r;
+    }
+
+    private void writeField(DataOutputStream out, Class<?> type, Object value) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        if (type == Long.class || type == long.class) {
+            out.writeLong((Long) value);
+        } else if (type == Integer.class || type == int.class) {
+            out.writeInt((Integer) value);
+        } else if (type == Double.class || type == double.class) {
+            out.writeDouble((Double) value);
+        } else if (type == Boolean.class || type == boolean.class) {
+            out.writeBoolean((Boolean) value);
+        } else if (type == String.class) {
+            byte[] s = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(s.length);
+            out.write(s);
+        } else {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+
+    private Object readField(ByteBuffer buffer, Class<?> type) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        if (type == Long.class || type == long.class) {
+            return buffer.getLong();
+        } else if (type == Integer.class || type == int.class) {
+            return buffer.getInt();
+        } else if (type == Double.class || type == double.class) {
+            return buffer.getDouble();
+        } else if (type == Boolean.class || type == boolean.class) {
+            return buffer.get() != 0;
+        } else if (type == String.class) {
+            byte[] s = new byte[buffer.getInt()];
+            buffer.get(s);
+            return new String(s, StandardCharsets.UTF_8);
+        } else {
+            long seconds = buffer.getLong();
+            return LocalDateTime.ofEpochSecond(seconds, buffer.getInt(), ZoneOffset.UTC);
+        }
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static final List<Class<?>> SUPPORTED_TYPES = Arrays.asList(
+            Long.class, long.class, Integer.class, int.class, Double.class, double.class,
+            Boolean.class, boolean.class, String.class, LocalDateTime.class);
+
+    /**
+     * 字段布局：非 static、非 transient 的字段按名称排序，指纹由字段名和类型计算
+     */
+    private static class Schema {
+        private final List<Field> fields = new ArrayList<>();
+        private final int fingerprint;
+        private final boolean supported;
+
+        private Schema(Class<?> type) {
+            boolean supported = true;
+            StringBuilder signature = new StringBuilder();
+            for (Field field : ReflectUtil.getFields(type)) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            for (Field field : fields) {
+                supported &= SUPPORTED_TYPES.contains(field.getType());
+                signature.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+            }
+            this.fingerprint = signature.toString().hashCode();
+            this.supported = supported;
+        }
+    }
+}
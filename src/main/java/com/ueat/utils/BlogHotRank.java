@@ -0,0 +1,178 @@
+package com.ueat.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ueat.entity.Blog;
+import com.ueat.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.ueat.utils.RedisConstants.BLOG_HOT_RECONCILE_KEY;
+import static com.ueat.utils.RedisConstants.BLOG_HOT_RECONCILE_LOCK_KEY;
+import static com.ueat.utils.RedisConstants.BLOG_LIKED_KEY;
+
+/**
+ * 热门笔记排行 blog:hot，分数 = 点赞数 + (发布时间 - EPOCH) / decaySeconds
+ * 1. 晚发布 decaySeconds 秒的笔记相当于多一个赞，旧笔记自然下沉；时间项由发布时间决定，点赞数 = 分数 - 时间项
+ * 2. 发布笔记 ZADD，点赞/取消点赞在 like.lua 中 ZADD XX INCR ±1（不在榜单中的笔记不处理）
+ * 3. 定期按主键分批扫描 tb_blog，在 hot_reconcile.lua 中按点赞集合 blog:liked:笔记id 的成员数重新计算分数，
+ *    写入临时榜单 blog:hot:reconcile 后 RENAME；对账期间的点赞、发布同时写入临时榜单，替换时不会丢失
+ */
+@Slf4j
+@Component
+public class BlogHotRank {
+
+    // 时间项的起点 2022-01-01 00:00:00 UTC
+    private static final long EPOCH = 1640995200L;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> RECONCILE_SCRIPT;
+    // 发布笔记：写入榜单，正在对账时同时写入临时榜单
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("hot_reconcile.lua"));
+        RECONCILE_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT.setScriptText("redis.call('zadd', KEYS[1], ARGV[1], ARGV[2]); " +
+                "if redis.call('exists', KEYS[2]) == 1 then " +
+                "redis.call('zadd', KEYS[2], ARGV[1], ARGV[2]); " +
+                "end; " +
+                "return 1;");
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+
+    // 晚发布多少秒相当于多一个赞
+    @Value("${ueat.blog.hot.decay-seconds:3600}")
+    private long decaySeconds;
+    // 榜单保留的笔记数
+    @Value("${ueat.blog.hot.max-size:1000}")
+    private int maxSize;
+    // 与数据库对账的间隔（秒），<= 0 时不对账
+    @Value("${ueat.blog.hot.reconcile-interval:300}")
+    private long reconcileInterval;
+
+    private final ScheduledExecutorService reconciler =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("blog-hot-reconcile-", true));
+
+    @PostConstruct
+    private void init() {
+        if (reconcileInterval > 0) {
+            reconciler.scheduleWithFixedDelay(this::reconcile, 0, reconcileInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * 新发布的笔记进入榜单
+     */
+    public void add(Blog blog) {
+        stringRedisTemplate.execute(ADD_SCRIPT, Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_RECONCILE_KEY),
+                String.valueOf(score(blog)), blog.getId().toString());
+    }
+
+    /**
+     * 按分数从高到低查询一页
+     */
+    public List<ZSetOperations.TypedTuple<String>> page(long from, long count) {
+        Set<ZSetOperations.TypedTuple<String>> tuples =
+                stringRedisTemplate.opsForZSet().reverseRangeWithScores(BLOG_HOT_KEY, from, from + count - 1);
+        return tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+    }
+
+    /**
+     * 由榜单分数还原点赞数
+     */
+    public int liked(double score, LocalDateTime createTime) {
+        return (int) Math.round(score - timeScore(createTime));
+    }
+
+    /**
+     * 扫描 tb_blog 重新计算前 maxSize 名，多个实例每个周期只有一个执行
+     */
+    public void reconcile() {
+        try {
+            Boolean locked = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(BLOG_HOT_RECONCILE_LOCK_KEY, "1", Math.max(reconcileInterval - 1, 1), TimeUnit.SECONDS);
+            if (!Boolean.TRUE.equals(locked)) {
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            // 1. 清掉上次中途失败留下的临时榜单
+            stringRedisTemplate.delete(BLOG_HOT_RECONCILE_KEY);
+            // 2. 按主键分批读取，每批一次脚本：按点赞集合的成员数计算分数写入临时榜单，只保留前 maxSize 名
+            long lastId = 0;
+            int count = 0;
+            while (true) {
+                List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                        .select("id", "liked", "create_time").gt("id", lastId)
+                        .orderByAsc("id").last("limit " + BATCH_SIZE));
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                List<String> keys = new ArrayList<>(blogs.size() + 1);
+                List<String> args = new ArrayList<>(blogs.size() * 3 + 1);
+                keys.add(BLOG_HOT_RECONCILE_KEY);
+                args.add(String.valueOf(maxSize));
+                for (Blog blog : blogs) {
+                    keys.add(BLOG_LIKED_KEY + blog.getId());
+                    args.add(blog.getId().toString());
+                    args.add(String.valueOf(timeScore(blog.getCreateTime())));
+                    args.add(String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+                }
+                stringRedisTemplate.execute(RECONCILE_SCRIPT, keys, args.toArray());
+                count += blogs.size();
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            // 3. RENAME 替换榜单，对账期间的点赞已经由 like.lua 同时累加到临时榜单
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_RECONCILE_KEY))) {
+                stringRedisTemplate.rename(BLOG_HOT_RECONCILE_KEY, BLOG_HOT_KEY);
+            } else {
+                stringRedisTemplate.delete(BLOG_HOT_KEY);
+            }
+            log.info("热门笔记榜单对账完成，扫描 {} 篇笔记，耗时 {} ms", count, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("热门笔记榜单对账失败", e);
+        }
+    }
+
+    private double score(Blog blog) {
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        return liked + timeScore(blog.getCreateTime());
+    }
+
+    private double timeScore(LocalDateTime createTime) {
+        LocalDateTime time = createTime == null ? LocalDateTime.now() : createTime;
+        return (double) (time.atZone(ZoneId.systemDefault()).toEpochSecond() - EPOCH) / decaySeconds;
+    }
+}
@@ -0,0 +1,191 @@
+package com.ueat.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.ueat.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.BLOG_LIKE_DELTA_KEY;
+import static com.ueat.utils.RedisConstants.BLOG_LIKE_FLUSHING_KEY;
+
+/**
+ * 点赞数回写（write-behind）：点赞只在 redis 中累加 blog:like:delta，定期合并成一条批量 UPDATE 写回 tb_blog.liked
+ * <p>
+ * 回写流程：
+ * 1. like_flush.lua 把 blog:like:delta 整体 RENAME 为 blog:like:delta:flushing，并写入新的批次id；
+ *    之后的点赞写入新的 blog:like:delta，与正在回写的批次互不影响
+ * 2. 同一个事务中 INSERT IGNORE tb_blog_like_flush(batch_id) 并批量 UPDATE tb_blog；插入返回 0 说明该批次已经回写过，跳过 UPDATE
+ * 3. 事务提交后删除 blog:like:delta:flushing（批次id一致才删除）
+ * <p>
+ * 持久性与宕机恢复：
+ * - 应用在第 1 步之后任意时刻宕机，flushing 和批次id都还在 redis 中，下次回写（任意实例）先处理这一批：
+ *   事务没提交则重新执行；事务已提交但没来得及 DEL，则因批次id已存在而跳过，每批增量恰好写入一次
+ * - 多个实例同时回写同一批次时，主键冲突保证只有一个事务生效
+ * - 增量只保存在 redis 中，redis 宕机丢失的是最近一次持久化（AOF/RDB）之后、还没回写的点赞数；
+ *   blog:liked:笔记id 与 blog:like:delta 同样依赖 redis 持久化，数据库中的 liked 最多落后一个回写间隔
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+
+    private static final DefaultRedisScript<String> FLUSH_SCRIPT;
+    private static final DefaultRedisScript<Long> FLUSH_DONE_SCRIPT;
+    // flushing 中记录批次id的 field
+    private static final String BATCH_FIELD = "batch";
+    // 每条 UPDATE 最多更新的笔记数
+    private static final int BATCH_SIZE = 500;
+
+    static {
+        FLUSH_SCRIPT = new DefaultRedisScript<>();
+        FLUSH_SCRIPT.setLocation(new ClassPathResource("like_flush.lua"));
+        FLUSH_SCRIPT.setResultType(String.class);
+        FLUSH_DONE_SCRIPT = new DefaultRedisScript<>();
+        FLUSH_DONE_SCRIPT.setLocation(new ClassPathResource("like_flush_done.lua"));
+        FLUSH_DONE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+    @Resource
+    private IdGenerator idGenerator;
+
+    // 回写间隔（毫秒）
+    @Value("${ueat.blog.like.flush-interval:1000}")
+    private long flushInterval;
+    // 回写批次记录保留的天数
+    @Value("${ueat.blog.like.batch-retention-days:1}")
+    private int batchRetentionDays;
+
+    private final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("blog-like-flush-", true));
+
+    @PostConstruct
+    private void init() {
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::purgeBatches, 1, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * 停机前再回写一次，尽量不把增量留在 redis 中
+     */
+    @PreDestroy
+    private void destroy() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    /**
+     * 回写一批增量：取出批次 -> 事务中幂等写库 -> 删除批次
+     * @return 本次回写的笔记数
+     */
+    public int flush() {
+        String batchId = snapshot();
+        if (batchId == null) {
+            return 0;
+        }
+        int count = apply(Long.parseLong(batchId));
+        done(batchId);
+        return count;
+    }
+
+    /**
+     * 第 1 步：取出一批增量，上一批没有完成时返回上一批的批次id
+     * @return 批次id，没有需要回写的增量时返回null
+     */
+    public String snapshot() {
+        List<String> keys = Arrays.asList(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY);
+        // 没有增量也没有未完成的批次时不生成批次id，每个实例每个回写间隔都会执行到这里
+        Long exists = stringRedisTemplate.countExistingKeys(keys);
+        if (exists == null || exists == 0) {
+            return null;
+        }
+        return stringRedisTemplate.execute(FLUSH_SCRIPT, keys, String.valueOf(idGenerator.nextId("like:flush")));
+    }
+
+    /**
+     * 第 2 步：在一个事务中记录批次id并批量更新点赞数，批次已经回写过时不做任何修改
+     * @return 更新的笔记数，批次已经回写过时返回 0
+     */
+    public int apply(long batchId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKE_FLUSHING_KEY);
+        // 其他实例已经完成了这一批，flushing 已经是新的批次
+        if (!String.valueOf(batchId).equals(entries.get(BATCH_FIELD))) {
+            return 0;
+        }
+        Map<Long, Long> deltas = new LinkedHashMap<>(entries.size());
+        entries.forEach((field, value) -> {
+            if (BATCH_FIELD.equals(field)) {
+                return;
+            }
+            long delta = Long.parseLong(value.toString());
+            if (delta != 0) {
+                deltas.put(Long.valueOf(field.toString()), delta);
+            }
+        });
+        Integer count = transactionTemplate.execute(status -> {
+            if (blogMapper.insertLikeFlushIgnore(batchId) == 0) {
+                log.warn("点赞批次 {} 已经回写过，跳过", batchId);
+                return 0;
+            }
+            List<Long> ids = new ArrayList<>(deltas.keySet());
+            for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+                Map<Long, Long> chunk = new LinkedHashMap<>();
+                for (Long id : ids.subList(from, Math.min(from + BATCH_SIZE, ids.size()))) {
+                    chunk.put(id, deltas.get(id));
+                }
+                blogMapper.incrLikedBatch(chunk);
+            }
+            return deltas.size();
+        });
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 第 3 步：删除已经回写的批次
+     */
+    public void done(String batchId) {
+        stringRedisTemplate.execute(FLUSH_DONE_SCRIPT, Collections.singletonList(BLOG_LIKE_FLUSHING_KEY), batchId);
+    }
+
+    private void flushQuietly() {
+        try {
+            int count = flush();
+            if (count > 0) {
+                log.debug("点赞数回写完成，共 {} 篇笔记", count);
+            }
+        } catch (Exception e) {
+            // 批次留在 blog:like:delta:flushing 中，下次回写时重试
+            log.error("点赞数回写失败", e);
+        }
+    }
+
+    private void purgeBatches() {
+        try {
+            blogMapper.deleteLikeFlushBefore(batchRetentionDays);
+        } catch (Exception e) {
+            log.error("清理点赞回写批次失败", e);
+        }
+    }
+}
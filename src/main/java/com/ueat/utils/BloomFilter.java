@@ -0,0 +1,231 @@
+package com.ueat.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.ueat.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 基于 redis bitmap 的布隆过滤器，所有实例共用同一个 bitmap
+ * 1. 位数 m = -n * ln(p) / (ln2)^2，哈希次数 k = m / n * ln2，m 和 k 写进 key，参数变了自动换新的 bitmap
+ * 2. 开启本地副本时，查询只读本地 BitSet：启动时整体加载，其他实例新增通过 pub/sub 同步，并定期整体重新加载兜底
+ * 3. 数据初始化完成前（markReady 之前）一律返回"可能存在"，避免误拦截
+ * 4. 定期检查 bitmap 和 :ready 标记，任意一个丢失（redis 被清空、key 被淘汰）就暂停拦截，并调用 rebuilder 从数据库重建
+ */
+@Slf4j
+public class BloomFilter {
+
+    private final String name;
+    private final long numBits;
+    private final int numHashes;
+    private final String key;
+    private final byte[] rawKey;
+    private final boolean localCopy;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final BitSet localBits;
+    private volatile boolean ready;
+    private volatile Runnable rebuilder;
+    private final ScheduledExecutorService reloader;
+
+    public BloomFilter(String name, long expectedInsertions, double fpp, boolean localCopy, long reloadSeconds,
+                       StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.name = name;
+        // redis bitmap 最大 2^32 位，本地 BitSet 最大 Integer.MAX_VALUE 位
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, Math.min(bits, Integer.MAX_VALUE));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.key = BLOOM_KEY + name + ":" + numBits + ":" + numHashes;
+        this.rawKey = key.getBytes(StandardCharsets.UTF_8);
+        this.localCopy = localCopy;
+        this.stringRedisTemplate = stringRedisTemplate;
+        if (localCopy) {
+            this.localBits = new BitSet((int) numBits);
+            // 其他实例新增的id同步到本地副本
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> setLocal(offsets(new String(message.getBody(), StandardCharsets.UTF_8))),
+                    new ChannelTopic(BLOOM_ADD_CHANNEL + name));
+        } else {
+            this.localBits = null;
+        }
+        this.reloader = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("bloom-" + name + "-", true));
+        reloader.scheduleWithFixedDelay(this::reload, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+        log.info("布隆过滤器 {} 位数: {}，哈希次数: {}，约占内存 {} KB", name, numBits, numHashes, numBits / 8 / 1024);
+    }
+
+    /**
+     * 可能存在返回true，一定不存在返回false
+     */
+    public boolean mightContain(Object id) {
+        if (!ready) {
+            return true;
+        }
+        long[] offsets = offsets(id.toString());
+        if (localCopy) {
+            BitSet bits = localBits;
+            for (long offset : offsets) {
+                if (!bits.get((int) offset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.getBit(rawKey, offset);
+            }
+            return null;
+        });
+        for (Object result : results) {
+            if (!Boolean.TRUE.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(Object id) {
+        String member = id.toString();
+        long[] offsets = offsets(member);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long offset : offsets) {
+                connection.setBit(rawKey, offset, true);
+            }
+            return null;
+        });
+        if (localCopy) {
+            setLocal(offsets);
+            stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL + name, member);
+        }
+    }
+
+    /**
+     * 批量写入，只写 redis，不发布同步消息（用于初始化，初始化完成后会整体加载本地副本）
+     */
+    public void addAll(Collection<?> ids) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Object id : ids) {
+                for (long offset : offsets(id.toString())) {
+                    connection.setBit(rawKey, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 当前参数对应的 bitmap 是否已经有实例初始化完成
+     */
+    public boolean isInitialized() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(key + ":ready"));
+    }
+
+    /**
+     * 数据初始化完成，开始拦截不存在的id
+     */
+    public void markReady() {
+        // 表为空时也要有 bitmap，否则定期检查会把它当成丢失反复重建
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.setBit(rawKey, numBits - 1, false));
+        stringRedisTemplate.opsForValue().set(key + ":ready", "1");
+        loadLocal();
+        ready = true;
+    }
+
+    /**
+     * bitmap 或 :ready 标记丢失时调用，由调用方从数据库重新导入并 markReady
+     */
+    public void setRebuilder(Runnable rebuilder) {
+        this.rebuilder = rebuilder;
+    }
+
+    /**
+     * 检查 redis 中的 bitmap 是否还在，在的话重新加载本地副本，丢失的话暂停拦截并重建
+     */
+    public void reload() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)) || !isInitialized()) {
+                Runnable r = rebuilder;
+                if (r == null) {
+                    // 还没有初始化完成
+                    return;
+                }
+                ready = false;
+                log.warn("布隆过滤器 {} 的 bitmap 已丢失，暂停拦截并从数据库重建", name);
+                r.run();
+                return;
+            }
+            loadLocal();
+        } catch (Exception e) {
+            log.error("布隆过滤器 {} 重新加载失败", name, e);
+        }
+    }
+
+    public void shutdown() {
+        reloader.shutdownNow();
+    }
+
+    /**
+     * 从 redis 整体加载并合并到本地副本（redis bitmap 中第 0 位是第一个字节的最高位）
+     * 只做 OR 不整体替换：GET 之后通过 pub/sub 设置的位不会丢，布隆过滤器的位本来也只增不减
+     */
+    private void loadLocal() {
+        if (!localCopy) {
+            return;
+        }
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        if (bytes == null) {
+            return;
+        }
+        BitSet bits = new BitSet((int) numBits);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i];
+            if (b == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((b & (0x80 >>> j)) != 0) {
+                    bits.set(i * 8 + j);
+                }
+            }
+        }
+        synchronized (localBits) {
+            localBits.or(bits);
+        }
+    }
+
+    private void setLocal(long[] offsets) {
+        synchronized (localBits) {
+            for (long offset : offsets) {
+                localBits.set((int) offset);
+            }
+        }
+    }
+
+    /**
+     * 双重哈希：第 i 个位置 = (h1 + i * h2) mod m
+     */
+    private long[] offsets(String member) {
+        long[] hash = MurmurHash.hash128(member);
+        long[] offsets = new long[numHashes];
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+}
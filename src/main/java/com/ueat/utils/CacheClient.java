@@ -1,16 +1,27 @@
 package com.ueat.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -18,101 +29,486 @@ import java.util.function.Function;
 @Component // spring维护这个bean
 public class CacheClient {
 
+    // 空值标记（缓存穿透）
+    private static final byte[] NULL_VALUE = new byte[0];
+
     private final StringRedisTemplate stringRedisTemplate;
+    // 缓存值直接以字节读写 redis，序列化格式由 CacheCodec 决定
+    private final CacheCodec cacheCodec;
+    // 异步重建缓存的线程池
+    private final CacheRebuildScheduler rebuildScheduler;
+    // 本地一级缓存：缓存反序列化后的对象，命中时不访问 redis、也不做反序列化
+    // Caffeine 使用 W-TinyLFU 淘汰，按缓存数据的字节数计算权重
+    private final Cache<String, LocalEntry> localCache;
+    // 缓存未命中时，同一个key在本实例内只有一个线程查库/抢分布式锁
+    private final SingleFlight singleFlight = new SingleFlight();
+    // 等待 leader 加载结果的最长时间（毫秒）
+    private final long singleFlightTimeout;
+    // 逻辑过期提前刷新（XFetch）的系数，越大越早刷新，<= 0 时只在过期后重建
+    private final double earlyRefreshBeta;
+    // 没有实测重建耗时的缓存（预热写入、旧数据）按这个耗时（毫秒）计算提前刷新
+    private final long defaultRebuildDelta;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       CacheCodec cacheCodec,
+                       CacheRebuildScheduler rebuildScheduler,
+                       RedisMessageListenerContainer listenerContainer,
+                       @Value("${ueat.cache.local.maximum-weight:10485760}") long maximumWeight,
+                       @Value("${ueat.cache.local.expire-after-write:60}") long expireAfterWrite,
+                       @Value("${ueat.cache.single-flight-timeout:3000}") long singleFlightTimeout,
+                       @Value("${ueat.cache.early-refresh-beta:1.0}") double earlyRefreshBeta,
+                       @Value("${ueat.cache.default-rebuild-delta:50}") long defaultRebuildDelta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.rebuildScheduler = rebuildScheduler;
+        this.singleFlightTimeout = singleFlightTimeout;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+        this.defaultRebuildDelta = defaultRebuildDelta;
+        this.localCache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String key, LocalEntry entry) -> entry.weight)
+                // 兜底：即使错过了失效消息，本地缓存最多比 redis 旧这么久
+                .expireAfterWrite(expireAfterWrite, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        // 订阅失效频道，任意实例删除缓存后，所有实例都清掉本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] bytes = cacheCodec.encode(value);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.setEx(rawKey(key), unit.toSeconds(time), bytes));
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 批量写入逻辑过期缓存，一次 pipeline（缓存预热用）
+     */
+    public void setAllWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                RedisData redisData = new RedisData();
+                redisData.setData(entry.getValue());
+                redisData.setExpireTime(expireTime);
+                redisData.setDelta(defaultRebuildDelta);
+                connection.set(rawKey(entry.getKey()), cacheCodec.encode(redisData));
+            }
+            return null;
+        });
+        localCache.invalidateAll(values.keySet());
+    }
+
+    /**
+     * 删除缓存，并通过 pub/sub 通知所有实例清除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+    }
+
+    /**
+     * 通知所有实例（包括自己）清除本地缓存，redis 中的数据已经由调用方改写
+     */
+    public void invalidateLocal(String key) {
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 本地缓存的命中/未命中/淘汰统计
+     */
+    public CacheStats localStats() {
+        return localCache.stats();
+    }
+
+    public long localSize() {
+        return localCache.estimatedSize();
     }
 
     // 设置 缓存击穿(逻辑过期预热部分)
-    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) throws InterruptedException {
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, defaultRebuildDelta);
+    }
+
+    /**
+     * @param delta 查库重建的实测耗时（毫秒），用于提前刷新
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long delta) {
         RedisData redisData = new RedisData();
-        Thread.sleep(50);
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setDelta(delta);
+        byte[] bytes = cacheCodec.encode(redisData);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.set(rawKey(key), bytes));
+        localCache.invalidate(key);
     }
 
     // 查询 缓存穿透（基于存储空值的解决方案）
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        // 1. 查询 Redis
+        // 1. 查询本地缓存和 Redis，命中空值同样返回null
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2. redis中存在
-        // 2.1 命中的不是空值：直接返回
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
-        }
-        // 2.2 命中的是空值：返回null
-        if (json != null) {
-            return null;
+        LocalEntry entry = lookup(key, type);
+        if (entry != null) {
+            return type.cast(entry.value);
         }
-        // 3. redis中不存在
-        // 4. 查询数据库
-        R r = dbFallback.apply(id);
-        // 4.1 数据库中不存在，redis存储空值，返回null
-        if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+        // 2. 都不存在，同一个key在本实例内只有一个线程查询数据库，其他线程等待它的结果
+        return singleFlight.execute(key, () -> {
+            // 2.1 double check：可能刚被其他实例写入
+            LocalEntry cached = lookup(key, type);
+            if (cached != null) {
+                return type.cast(cached.value);
+            }
+            // 3. 查询数据库
+            R r = dbFallback.apply(id);
+            // 3.1 数据库中不存在，redis存储空值，返回null
+            if (r == null) {
+                this.setNull(key);
+                return null;
+            }
+            // 3.2 数据库中存在，写入redis并返回
+            this.set(key, r, time, unit);
+            return r;
+        }, singleFlightTimeout);
+    }
+
+    // 查询 缓存击穿（基于互斥锁的解决方案）
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 1. 查询本地缓存和 Redis，命中空值同样返回null
+        String key = keyPrefix + id;
+        LocalEntry entry = lookup(key, type);
+        if (entry != null) {
+            return type.cast(entry.value);
         }
-        // 4.2 数据库中存在，写入redis并返回
-        this.set(key, JSONUtil.toJsonStr(r), time, unit);
-        return r;
+        // 2. 未命中，只有本实例的 leader 线程去抢分布式锁重建缓存，其他线程等待 leader 的结果，不再各自休眠重试
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, dbFallback, time, unit), singleFlightTimeout);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private <R, ID> R rebuildWithMutex(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = RedisConstants.LOCK_CACHE_KEY + key;
+        long deadline = System.currentTimeMillis() + singleFlightTimeout;
+        while (true) {
+            // 3. 获取互斥锁
+            if (tryLock(lockKey)) {
+                try {
+                    // 3.1 double check：其他实例可能已经重建完成
+                    LocalEntry cached = lookup(key, type);
+                    if (cached != null) {
+                        return type.cast(cached.value);
+                    }
+                    // 3.2 查询数据库并写入redis，不存在时写入空值
+                    R r = dbFallback.apply(id);
+                    if (r == null) {
+                        this.setNull(key);
+                        return null;
+                    }
+                    this.set(key, r, time, unit);
+                    return r;
+                } finally {
+                    unlock(lockKey);
+                }
+            }
+            // 4. 其他实例正在重建，休眠后查询缓存，超时仍未重建完成则放弃
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("等待缓存重建超时: " + key);
+            }
+            ThreadUtil.sleep(50);
+            LocalEntry cached = lookup(key, type);
+            if (cached != null) {
+                return type.cast(cached.value);
+            }
+        }
+    }
+
+    /**
+     * 批量查询 缓存穿透（基于存储空值的解决方案）
+     * 本地缓存 -> 一次 MGET -> 未命中的id一次批量查库 -> 一次 pipeline 回写（不存在的写入空值）
+     * @param dbFallback 批量查库，返回 id -> 数据，查不到的id不放入map
+     * @return 按 ids 的顺序排列的数据，不存在的id跳过
+     */
+    public <R, ID> List<R> queryAllWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        // 1. 查询本地缓存
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            LocalEntry entry = localCache.getIfPresent(keyPrefix + id);
+            if (entry == null) {
+                remoteIds.add(id);
+            } else if (entry.value != null) {
+                found.put(id, type.cast(entry.value));
+            }
+        }
+        // 2. MGET 查询 redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            byte[][] keys = new byte[remoteIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = rawKey(keyPrefix + remoteIds.get(i));
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                String key = keyPrefix + remoteIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                R r = bytes != null && bytes.length > 0 ? cacheCodec.decode(bytes, type) : null;
+                // 2.1 命中的不是空值
+                if (r != null) {
+                    localCache.put(key, new LocalEntry(r, null, bytes.length));
+                    found.put(remoteIds.get(i), r);
+                } else if (bytes != null && bytes.length == 0) {
+                    // 2.2 命中的是空值
+                    localCache.put(key, new LocalEntry(null, null, 1));
+                } else {
+                    missIds.add(remoteIds.get(i));
+                }
+            }
+        }
+        // 3. 未命中的id批量查询数据库
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(missIds);
+            Map<ID, R> fromDb = loaded == null ? new HashMap<>() : loaded;
+            // 4. pipeline 回写 redis，数据库中不存在的写入空值
+            long seconds = unit.toSeconds(time);
+            long nullSeconds = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    R r = fromDb.get(id);
+                    if (r == null) {
+                        connection.setEx(rawKey(keyPrefix + id), nullSeconds, NULL_VALUE);
+                    } else {
+                        connection.setEx(rawKey(keyPrefix + id), seconds, cacheCodec.encode(r));
+                    }
+                }
+                return null;
+            });
+            found.putAll(fromDb);
+        }
+        // 5. 按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
 
     // 查询 缓存击穿（基于逻辑过期的解决方案）
     public <R, ID> R queryWithLogicalExpire
                     (String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        // 1. 查询 redis
+        // 1. 查询本地缓存，逻辑上没过期直接返回；过期了走 redis，由 redis 的数据决定是否重建
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(json)) {
+        LocalEntry entry = localCache.getIfPresent(key);
+        if (entry != null && entry.expireTime.isAfter(LocalDateTime.now())) {
+            // 1.1 临近过期时按概率提前重建，本地缓存命中也参与，热点key主要从这里命中
+            if (shouldRefreshEarly(entry.expireTime, entry.delta)) {
+                rebuildAsync(key, id, dbFallback, time, unit);
+            }
+            return type.cast(entry.value);
+        }
+        // 2. 查询 redis
+        byte[] bytes = get(key);
+        if (bytes == null || bytes.length == 0) {
             // 不存在直接返回null(缓存预热，redis中不存在说明数据非热点数据，不需要继续查询数据库)
             return null;
         }
-        // 2. 存在，反序列化为bean(以redisData类存储)
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
-        // 3. 判断是否过期
+        // 3. 存在，反序列化为bean(以redisData类存储，data 已经是目标类型)
+        RedisData redisData = cacheCodec.decodeWithExpire(bytes, type);
+        R r = type.cast(redisData.getData());
+        // 4. 判断是否过期
         LocalDateTime expireTime = redisData.getExpireTime();
-        // 3.1 没过期，直接返回
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        // 4.1 没过期，写入本地缓存并返回；临近过期时按概率提前重建
+        if (r != null && expireTime.isAfter(LocalDateTime.now())) {
+            localCache.put(key, new LocalEntry(r, expireTime, delta, bytes.length));
+            if (shouldRefreshEarly(expireTime, delta)) {
+                rebuildAsync(key, id, dbFallback, time, unit);
+            }
             return r;
         }
-        // 4. 过期
-        // 4.1 获取互斥锁(这里还是用shop的lock来指定)
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 4.2 锁没被获取 开启独立线程实现缓存更新
-        if (isLock) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库 获取最新值
-                    R r1 = dbFallback.apply(id);
-                    // 调用缓存预热方法实现缓存更新（逻辑过期）
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(lockKey);
+        // 5. 过期，获取到锁的线程开启独立线程实现缓存更新
+        rebuildAsync(key, id, dbFallback, time, unit);
+        // 5.1 锁已被获取/还未被获取 最后都直接返回旧数据
+        return r;
+    }
+
+    /**
+     * 批量查询 缓存击穿（基于逻辑过期的解决方案）
+     * 本地缓存 -> 一次 MGET -> 缓存中没有的id一次批量查库并 pipeline 写入缓存
+     * 逻辑过期的数据照常返回旧值并异步重建，与 queryWithLogicalExpire 一致
+     * @param dbFallback 批量查库，返回 id -> 数据，查不到的id不放入map
+     * @return 按 ids 的顺序排列的数据，不存在的id跳过
+     */
+    public <R, ID> List<R> queryAllWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        // 单个id重建时复用批量查库
+        Function<ID, R> singleFallback = id -> {
+            Map<ID, R> loaded = dbFallback.apply(Collections.singletonList(id));
+            return loaded == null ? null : loaded.get(id);
+        };
+        Map<ID, R> found = new HashMap<>(ids.size());
+        LocalDateTime now = LocalDateTime.now();
+        // 1. 查询本地缓存
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            LocalEntry entry = localCache.getIfPresent(keyPrefix + id);
+            if (entry != null && entry.expireTime != null && entry.expireTime.isAfter(now)) {
+                if (shouldRefreshEarly(entry.expireTime, entry.delta)) {
+                    rebuildAsync(keyPrefix + id, id, singleFallback, time, unit);
                 }
-            });
+                found.put(id, type.cast(entry.value));
+            } else {
+                remoteIds.add(id);
+            }
         }
-        // 4.3 锁已被获取/还未被获取 最后都直接返回旧数据
-        return r;
+        // 2. MGET 查询 redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            byte[][] keys = new byte[remoteIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = rawKey(keyPrefix + remoteIds.get(i));
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                String key = keyPrefix + id;
+                byte[] bytes = values == null ? null : values.get(i);
+                RedisData redisData = bytes == null || bytes.length == 0 ? null : cacheCodec.decodeWithExpire(bytes, type);
+                if (redisData == null || redisData.getData() == null) {
+                    missIds.add(id);
+                    continue;
+                }
+                R r = type.cast(redisData.getData());
+                found.put(id, r);
+                long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+                // 2.1 没过期写入本地缓存，临近过期按概率提前重建；已过期返回旧值并异步重建
+                if (redisData.getExpireTime().isAfter(now)) {
+                    localCache.put(key, new LocalEntry(r, redisData.getExpireTime(), delta, bytes.length));
+                    if (shouldRefreshEarly(redisData.getExpireTime(), delta)) {
+                        rebuildAsync(key, id, singleFallback, time, unit);
+                    }
+                } else {
+                    rebuildAsync(key, id, singleFallback, time, unit);
+                }
+            }
+        }
+        // 3. 缓存中没有的id批量查询数据库，pipeline 写入缓存
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(missIds);
+            if (loaded != null && !loaded.isEmpty()) {
+                Map<String, R> values = new HashMap<>(loaded.size());
+                loaded.forEach((id, r) -> values.put(keyPrefix + id, r));
+                setAllWithLogicalExpire(values, time, unit);
+                found.putAll(loaded);
+            }
+        }
+        // 4. 按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(random) >= expireTime 时提前重建
+     * 重建越慢（delta 越大）、离过期越近，提前重建的概率越大，各个请求不会在过期的同一时刻一起抢锁
+     */
+    private boolean shouldRefreshEarly(LocalDateTime expireTime, long delta) {
+        if (earlyRefreshBeta <= 0) {
+            return false;
+        }
+        if (delta <= 0) {
+            delta = defaultRebuildDelta;
+        }
+        double gap = -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plusNanos((long) (gap * 1_000_000)).isBefore(expireTime);
+    }
+
+    /**
+     * 提交到重建线程池，同一个key只排队一次，队列满时放弃（调用方继续返回旧数据）
+     * 在重建线程中获取互斥锁（按缓存key加锁），获取成功才查库重建，并记录重建耗时
+     * 数据库中已经不存在时删除缓存，不写入 data 为 null 的逻辑过期数据（每次读取都会当作过期再次重建）
+     */
+    private <R, ID> void rebuildAsync(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        rebuildScheduler.submit(key, () -> {
+            String lockKey = RedisConstants.LOCK_CACHE_KEY + key;
+            if (!tryLock(lockKey)) {
+                // 其他实例正在重建
+                return;
+            }
+            try {
+                // 查询数据库 获取最新值
+                long begin = System.currentTimeMillis();
+                R r1 = dbFallback.apply(id);
+                if (r1 == null) {
+                    this.delete(key);
+                    return;
+                }
+                // 调用缓存预热方法实现缓存更新（逻辑过期）
+                this.setWithLogicalExpire(key, r1, time, unit, System.currentTimeMillis() - begin);
+            } finally {
+                unlock(lockKey);
+            }
+        });
+    }
+
+    /**
+     * 依次查询本地缓存和 redis，redis 命中时写入本地缓存
+     * @return 都未命中返回null；命中空值返回 value 为 null 的条目
+     */
+    private LocalEntry lookup(String key, Class<?> type) {
+        LocalEntry entry = localCache.getIfPresent(key);
+        if (entry != null) {
+            return entry;
+        }
+        byte[] bytes = get(key);
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            entry = new LocalEntry(null, null, 1);
+        } else {
+            Object r = cacheCodec.decode(bytes, type);
+            // 解码失败（类的字段变了）当作未命中
+            if (r == null) {
+                return null;
+            }
+            entry = new LocalEntry(r, null, bytes.length);
+        }
+        localCache.put(key, entry);
+        return entry;
+    }
+
+    private byte[] get(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    private void setNull(String key) {
+        long seconds = TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.setEx(rawKey(key), seconds, NULL_VALUE));
+        localCache.invalidate(key);
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
     }
 
     private boolean tryLock(String key) {
         // value任意
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.MINUTES);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_CACHE_TTL, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
     }
 
@@ -120,5 +516,25 @@ public class CacheClient {
         stringRedisTemplate.delete(key);
     }
 
+    /**
+     * 本地缓存条目：value 为 null 表示缓存的空值，expireTime 为逻辑过期时间（没有逻辑过期时为 null）
+     */
+    private static class LocalEntry {
+        private final Object value;
+        private final LocalDateTime expireTime;
+        // 重建耗时（毫秒），只有逻辑过期的条目有
+        private final long delta;
+        private final int weight;
 
+        private LocalEntry(Object value, LocalDateTime expireTime, int weight) {
+            this(value, expireTime, 0, weight);
+        }
+
+        private LocalEntry(Object value, LocalDateTime expireTime, long delta, int weight) {
+            this.value = value;
+            this.expireTime = expireTime;
+            this.delta = delta;
+            this.weight = weight;
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package com.ueat.utils;
+
+/**
+ * 缓存值的编解码
+ * 空值标记（缓存穿透）统一用空字节数组表示，不经过编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存数据
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 编码带逻辑过期时间的缓存数据
+     */
+    byte[] encode(RedisData redisData);
+
+    /**
+     * 解码普通缓存数据
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 解码带逻辑过期时间的缓存数据，返回的 RedisData.data 已经是 type 类型，不需要二次转换
+     */
+    <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type);
+}
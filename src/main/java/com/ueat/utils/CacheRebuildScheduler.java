@@ -0,0 +1,111 @@
+package com.ueat.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池，所有异步重建缓存的任务共用
+ * 1. 有界队列，队列满时直接放弃本次重建，调用方继续返回旧数据
+ * 2. 同一个key已经在排队或执行时不会重复提交
+ * 3. 统计队列长度、重建耗时和失败次数
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final ThreadPoolExecutor executor;
+    // 排队或执行中的key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public CacheRebuildScheduler(@Value("${ueat.cache.rebuild.threads:10}") int threads,
+                                 @Value("${ueat.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                ThreadUtil.newNamedThreadFactory("cache-rebuild-", true),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，用于去重
+     * @param task 重建逻辑
+     * @return 是否提交成功（重复提交或队列已满时返回false）
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 队列已满，放弃本次重建，下次访问时再尝试
+            pendingKeys.remove(key);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable task) {
+        long begin = System.currentTimeMillis();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败，key: {}", key, e);
+        } finally {
+            long latency = System.currentTimeMillis() - begin;
+            totalLatency.add(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+            pendingKeys.remove(key);
+        }
+    }
+
+    /**
+     * 重建线程池的统计
+     */
+    public Map<String, Object> stats() {
+        long finished = completed.sum() + failed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeCount", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMillis", finished == 0 ? 0 : totalLatency.sum() / finished);
+        stats.put("maxLatencyMillis", maxLatency.get());
+        return stats;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+}
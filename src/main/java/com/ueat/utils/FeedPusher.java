@@ -0,0 +1,340 @@
+package com.ueat.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ueat.entity.Follow;
+import com.ueat.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.FEED_BIG_V_KEY;
+import static com.ueat.utils.RedisConstants.FEED_KEY;
+import static com.ueat.utils.RedisConstants.FEED_OUTBOX_KEY;
+
+/**
+ * 异步推送笔记到粉丝收件箱 feed:粉丝id（推拉结合）
+ * 1. 发布笔记只 XADD 一条消息到 stream.feed，接口立即返回
+ * 2. 推送线程 XREADGROUP 读取消息，按主键游标分页读取粉丝，每页一次 pipeline ZADD，并把收件箱裁剪到 inboxMaxSize
+ * 3. 粉丝数达到 bigVThreshold 的作者成为大V，笔记只写入自己的发件箱 feed:outbox:作者id，粉丝读取时再合并（读扩散）
+ * 4. 推送完成才 XACK；ZADD 是幂等的，重投递的消息整条重推即可。空闲超过 claimIdle 的 pending 消息由其他实例认领
+ * 5. 格式错误的消息直接确认；投递次数达到 maxDeliveries 仍失败的消息转入死信队列 stream.feed.dead 后确认，不再重试
+ */
+@Slf4j
+@Component
+public class FeedPusher {
+
+    private static final String QUEUE_NAME = "stream.feed";
+    private static final String GROUP_NAME = "g1";
+    // 多次投递仍推送失败的消息
+    private static final String DEAD_QUEUE_NAME = "stream.feed.dead";
+    // 回收 pending 消息时每页 XPENDING 的条数
+    private static final long REAP_PAGE_SIZE = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private FollowMapper followMapper;
+
+    // 每次读取的粉丝数，也是每次 pipeline 的 ZADD 数
+    @Value("${ueat.feed.page-size:1000}")
+    private int pageSize;
+    // 收件箱最多保留的笔记数
+    @Value("${ueat.feed.inbox-max-size:1000}")
+    private int inboxMaxSize;
+    // 每个实例的推送线程数
+    @Value("${ueat.feed.workers:2}")
+    private int workers;
+    // pending 消息空闲超过该时间（毫秒）由其他消费者认领
+    @Value("${ueat.feed.claim-idle:60000}")
+    private long claimIdle;
+    // 粉丝数达到该值的作者只写发件箱，<= 0 时全部推送
+    @Value("${ueat.feed.big-v-threshold:5000}")
+    private long bigVThreshold;
+    // 消息最多投递的次数，达到后仍失败转入死信队列
+    @Value("${ueat.feed.max-deliveries:5}")
+    private long maxDeliveries;
+    // 粉丝数未达到阈值的作者在本地缓存的时间（秒），期间发布笔记不再查询粉丝数
+    @Value("${ueat.feed.big-v-check-ttl:60}")
+    private long bigVCheckTtl;
+
+    // 粉丝数未达到阈值的作者id，达到阈值后最多晚 bigVCheckTtl 秒变为只写发件箱
+    private Cache<Long, Boolean> notBigV;
+
+    private ExecutorService pushExecutor;
+    private ScheduledExecutorService pendingReaper;
+
+    @PostConstruct
+    private void init() {
+        notBigV = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(bigVCheckTtl, TimeUnit.SECONDS)
+                .build();
+        try {
+            stringRedisTemplate.opsForStream().createGroup(QUEUE_NAME, ReadOffset.from("$"), GROUP_NAME);
+            log.info("笔记推送消费者组 '{}' 初始化成功", GROUP_NAME);
+        } catch (Exception e) {
+            log.warn("笔记推送消费者组 '{}' 已存在或初始化失败: {}", GROUP_NAME, e.getMessage());
+        }
+        String consumerPrefix = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        int n = Math.max(workers, 1);
+        pushExecutor = Executors.newFixedThreadPool(n, ThreadUtil.newNamedThreadFactory("feed-push-", false));
+        for (int i = 0; i < n; i++) {
+            String consumerName = consumerPrefix + "-" + i;
+            pushExecutor.submit(() -> consume(consumerName));
+        }
+        pendingReaper = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("feed-push-reaper-", true));
+        pendingReaper.scheduleWithFixedDelay(
+                () -> reap(consumerPrefix + "-reaper"), claimIdle, claimIdle, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        pendingReaper.shutdownNow();
+        pushExecutor.shutdownNow();
+    }
+
+    /**
+     * 发布笔记，异步推送给作者的所有粉丝
+     * @param time 推送到收件箱的分数（发布时间戳）
+     */
+    public void publish(Long blogId, Long authorId, long time) {
+        Map<String, String> message = new HashMap<>(4);
+        message.put("blogId", blogId.toString());
+        message.put("authorId", authorId.toString());
+        message.put("time", String.valueOf(time));
+        stringRedisTemplate.opsForStream().add(QUEUE_NAME, message);
+    }
+
+    private void consume(String consumerName) {
+        // 先处理自己上次没有确认的消息，从上一页最后一条之后继续读，推送失败留在 pending-list 的消息不会被反复读取
+        boolean pending = true;
+        String pendingOffset = "0";
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP_NAME, consumerName),
+                        StreamReadOptions.empty().count(10).block(Duration.ofSeconds(2)),
+                        StreamOffset.create(QUEUE_NAME, pending ? ReadOffset.from(pendingOffset) : ReadOffset.lastConsumed())
+                );
+                if (list == null || list.isEmpty()) {
+                    pending = false;
+                    continue;
+                }
+                if (pending) {
+                    pendingOffset = list.get(list.size() - 1).getId().getValue();
+                }
+                handleRecords(list);
+            } catch (Exception e) {
+                log.error("推送笔记异常", e);
+                pending = true;
+                pendingOffset = "0";
+                sleep(20);
+            }
+        }
+        log.info("笔记推送消费者 {} 已停止", consumerName);
+    }
+
+    /**
+     * 认领失效消费者的 pending 消息，按消息id分页扫描整个 pending-list
+     */
+    private void reap(String consumerName) {
+        try {
+            // 空闲的消息可能排在刚投递的消息后面，不能只看最早的一页
+            Range<String> range = Range.unbounded();
+            while (!Thread.currentThread().isInterrupted()) {
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                        .pending(QUEUE_NAME, GROUP_NAME, range, REAP_PAGE_SIZE);
+                if (pendingMessages.isEmpty()) {
+                    break;
+                }
+                List<RecordId> idleIds = new ArrayList<>();
+                Map<RecordId, Long> deliveries = new HashMap<>();
+                for (PendingMessage pendingMessage : pendingMessages) {
+                    if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdle) {
+                        idleIds.add(pendingMessage.getId());
+                        deliveries.put(pendingMessage.getId(), pendingMessage.getTotalDeliveryCount());
+                    }
+                }
+                if (!idleIds.isEmpty()) {
+                    List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream().claim(
+                            QUEUE_NAME, GROUP_NAME, consumerName, Duration.ofMillis(claimIdle), idleIds.toArray(new RecordId[0]));
+                    if (claimed != null && !claimed.isEmpty()) {
+                        log.warn("认领失效消费者的笔记推送消息 {} 条", claimed.size());
+                        // 已经投递了 maxDeliveries 次仍未确认的消息转入死信队列
+                        List<MapRecord<String, Object, Object>> retry = new ArrayList<>(claimed.size());
+                        for (MapRecord<String, Object, Object> record : claimed) {
+                            if (deliveries.getOrDefault(record.getId(), 0L) >= maxDeliveries) {
+                                deadLetter(record);
+                            } else {
+                                retry.add(record);
+                            }
+                        }
+                        handleRecords(retry);
+                    }
+                }
+                if (pendingMessages.size() < REAP_PAGE_SIZE) {
+                    break;
+                }
+                // 下一页从本页最后一条消息的下一个id开始
+                RecordId last = pendingMessages.get(pendingMessages.size() - 1).getId();
+                range = Range.rightUnbounded(Range.Bound.inclusive(
+                        last.getTimestamp() + "-" + (last.getSequence() + 1)));
+            }
+        } catch (Exception e) {
+            log.error("回收笔记推送 pending 消息异常", e);
+        }
+    }
+
+    /**
+     * 逐条推送并确认，一条失败不影响同一批的其他消息
+     * 格式错误的消息重试也不会成功，直接确认；推送失败的消息留在 pending-list，由 reaper 认领重试
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+        for (MapRecord<String, Object, Object> record : list) {
+            Map<Object, Object> value = record.getValue();
+            long blogId;
+            long authorId;
+            long time;
+            try {
+                blogId = Long.parseLong(value.get("blogId").toString());
+                authorId = Long.parseLong(value.get("authorId").toString());
+                time = Long.parseLong(value.get("time").toString());
+            } catch (RuntimeException e) {
+                log.error("笔记推送消息 {} 格式错误，丢弃: {}", record.getId(), value, e);
+                stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, record.getId());
+                continue;
+            }
+            try {
+                long begin = System.currentTimeMillis();
+                int count = push(blogId, authorId, time);
+                stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, record.getId());
+                log.debug("笔记 {} 已推送给 {} 个粉丝，耗时 {} ms", blogId, count, System.currentTimeMillis() - begin);
+            } catch (Exception e) {
+                log.error("笔记 {} 推送失败，消息 {} 等待重试", blogId, record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 写入死信队列后确认，不再重试
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record) {
+        Map<String, String> message = new HashMap<>(record.getValue().size() + 1);
+        record.getValue().forEach((k, v) -> message.put(k.toString(), String.valueOf(v)));
+        message.put("recordId", record.getId().getValue());
+        stringRedisTemplate.opsForStream().add(DEAD_QUEUE_NAME, message);
+        stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, GROUP_NAME, record.getId());
+        log.error("笔记推送消息 {} 投递 {} 次仍未成功，转入死信队列 {}: {}",
+                record.getId(), maxDeliveries, DEAD_QUEUE_NAME, record.getValue());
+    }
+
+    /**
+     * 按主键游标分页读取粉丝，每页一次 pipeline 写入收件箱
+     * @return 推送的粉丝数
+     */
+    private int push(long blogId, long authorId, long time) {
+        String member = String.valueOf(blogId);
+        // 大V只写发件箱
+        if (isBigV(authorId)) {
+            String key = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.zAdd(key, time, member);
+                conn.zRemRangeByRank(key, 0, -inboxMaxSize - 1);
+                return null;
+            });
+            return 0;
+        }
+        long lastId = 0;
+        int count = 0;
+        while (true) {
+            // select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit ?
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id").eq("follow_user_id", authorId).gt("id", lastId)
+                    .orderByAsc("id").last("limit " + pageSize));
+            if (follows.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Follow follow : follows) {
+                    String key = FEED_KEY + follow.getUserId();
+                    conn.zAdd(key, time, member);
+                    // 按时间升序排名，只保留最新的 inboxMaxSize 条
+                    conn.zRemRangeByRank(key, 0, -inboxMaxSize - 1);
+                }
+                return null;
+            });
+            count += follows.size();
+            lastId = follows.get(follows.size() - 1).getId();
+            if (follows.size() < pageSize) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 已经是大V，或者粉丝数达到阈值（记入大V集合）
+     * 未达到阈值的结果在本地缓存 bigVCheckTtl 秒，频繁发布的作者不会每次都 count 一次粉丝
+     */
+    private boolean isBigV(long authorId) {
+        if (bigVThreshold <= 0) {
+            return false;
+        }
+        if (notBigV.getIfPresent(authorId) != null) {
+            return false;
+        }
+        String author = String.valueOf(authorId);
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_V_KEY, author))) {
+            return true;
+        }
+        // select count(*) from tb_follow where follow_user_id = ?，走 idx_follow_user_id
+        Integer followers = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+        if (followers != null && followers >= bigVThreshold) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, author);
+            log.info("用户 {} 粉丝数 {}，成为大V，之后的笔记只写入发件箱", authorId, followers);
+            return true;
+        }
+        notBigV.put(authorId, Boolean.TRUE);
+        return false;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.ueat.utils;
+
+/**
+ * 全局唯一ID生成器
+ * 通过 ueat.id.generator 选择实现：redis（默认，RedisIdWorker）、snowflake（SnowflakeIdWorker）、netty（NettyRedisIdWorker）
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成下一个ID
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一的ID
+     */
+    long nextId(String keyPrefix);
+}
@@ -10,14 +10,57 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
-    public static final String CACHE_SHOP_LIST = "cache:shoplist";
+    // 店铺缓存的逻辑过期时间（秒），设置为20s，方便测试
+    public static final Long CACHE_SHOP_LOGICAL_TTL = 20L;
+    // 店铺类型修改通知频道，所有实例重新加载店铺类型快照
+    public static final String SHOP_TYPE_CHANNEL = "shop:type:update";
+    // 本地缓存失效通知频道，消息内容为被删除的缓存key
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
-    public static final String LOCK_SHOP_KEY = "lock:shop:";
-    public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    // 缓存重建互斥锁，后面拼接完整的缓存key，不同缓存的同一个id不会互相竞争
+    public static final String LOCK_CACHE_KEY = "lock:";
+    public static final Long LOCK_CACHE_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 缓存预热水位：上一次预热处理到的 update_time
+    public static final String WARM_UP_SHOP_WATERMARK_KEY = "warmup:shop:watermark";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    // 待回写数据库的点赞数增量（hash，field 为笔记id），回写时整体改名为 :flushing 并记录批次id
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:delta:flushing";
+    // 热门笔记榜单，分数 = 点赞数 + 发布时间项
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    // 对账中的临时榜单，对账完成后 RENAME 为 blog:hot
+    public static final String BLOG_HOT_RECONCILE_KEY = "blog:hot:reconcile";
+    public static final String BLOG_HOT_RECONCILE_LOCK_KEY = "lock:blog:hot:reconcile";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_TTL = 30L;
     public static final String FEED_KEY = "feed:";
+    // 大V作者的发件箱：feed:outbox:作者id，大V发布的笔记只写这里，由粉丝读取时拉取
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    // 大V作者id集合，作者一旦成为大V不再移除，保证发件箱中的笔记一直能被拉取到
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    // 附近店铺的搜索结果（成员为店铺id，分数为距离）：shop:geo:result:类型id:经度:纬度
+    public static final String SHOP_GEO_RESULT_KEY = "shop:geo:result:";
+    public static final Long SHOP_GEO_RESULT_TTL = 60L;
+    // 店铺搜索索引的更新通知频道，消息内容为店铺的 id、name、area、address
+    public static final String SHOP_SEARCH_CHANNEL = "shop:search:update";
     public static final String USER_SIGN_KEY = "sign:";
+
+    // 店铺排行榜：rank:shop:维度:范围 为近几天按天衰减合并后的榜单，rank:shop:维度:范围:yyyyMMdd 为每天的分桶
+    // 范围为 all（全部店铺）或店铺类型id
+    public static final String SHOP_RANK_KEY = "rank:shop:";
+    // 评价过店铺的标记：shop:reviewed:店铺id:用户id，有效期内不能再次评价
+    public static final String SHOP_REVIEWED_KEY = "shop:reviewed:";
+
+    public static final String ID_WORKER_KEY = "id:worker:";
+
+    // 布隆过滤器 bitmap：bloom:名称:位数:哈希次数
+    public static final String BLOOM_KEY = "bloom:";
+    // 布隆过滤器新增id的同步频道：bloom:add:名称
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add:";
 }
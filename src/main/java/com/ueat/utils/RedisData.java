@@ -10,4 +10,6 @@ public class RedisData {
     private LocalDateTime expireTime;
     // 泛型存储 不需要让原本数据进行继承
     private Object data;
+    // 上一次重建缓存的耗时（毫秒），用于在逻辑过期前按概率提前刷新（XFetch）
+    private Long delta;
 }
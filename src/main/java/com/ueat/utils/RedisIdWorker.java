@@ -1,15 +1,26 @@
 package com.ueat.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -18,12 +29,25 @@ public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1704067200L;
     // 序列号长度（ == 时间戳左移的位移）
     private static final long COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    // 当前号段用掉 80% 时异步预取下一个号段
+    private static final double PREFETCH_RATIO = 0.8;
+
+    // 号段模式：每次 INCRBY 预留 segmentSize 个序列号，在本地发号；<= 1 时每个 id 都 INCR 一次
+    @Value("${ueat.id.segment-size:0}")
+    private long segmentSize;
+
+    // 每个业务前缀一个号段缓冲
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+    private final ExecutorService segmentPrefetchExecutor =
+            Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("id-segment-", true));
 
     /**
      *  基于 redis 自增长器实现自增ID
      * @param keyPrefix 业务前缀
      * @return 基本数据类型的单号（不用String等是因为基本数据类型占空间更小）
      */
+    @Override
     public long nextId(String keyPrefix) {
         // 1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -32,13 +56,106 @@ public class RedisIdWorker {
         // 2. 生成序列号
         // redis自增的范围到2^64，而全局ID生成器中设计的：记录序列号的比特位只有32位，因此哪怕同一个业务也不能一直使用同一个key，不然可能超过上限
         // 采取按天来对业务进行细分，同一天使用同一个key，保证不溢出的同时也有统计的能力
-        // 2.1 获取当前日期 精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        // 2.1 计数器key中带上当前日期 精确到天
         // 2.2 自增长，使用基本数据类型来接收（后续要运算）
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = segmentSize > 1
+                ? nextCountFromSegment(keyPrefix, counterKey(keyPrefix, now))
+                : stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, now));
         // 3. 拼接并返回
         // 同一秒生成的id序列号前缀是一样的（timestamp一样）
         return timeStamp<<COUNT_BITS | count;
     }
 
+    /**
+     * 当天的序列号计数器 key：icr:业务前缀:yyyy:MM:dd
+     * seckill.lua 在脚本内自增同一个 key 生成订单id，与 nextId 共用计数器才能保证id不重复
+     */
+    public String counterKey(String keyPrefix) {
+        return counterKey(keyPrefix, LocalDateTime.now());
+    }
+
+    private String counterKey(String keyPrefix, LocalDateTime now) {
+        return "icr:" + keyPrefix + ":" + now.format(DATE_FORMATTER);
+    }
+
+    /**
+     * 时间戳基准：id 中的时间戳 = epoch 秒 - 基准
+     * nextId 把本地时间当作 UTC 换算时间戳，因此基准要扣掉本地时区偏移，脚本里用 redis TIME 算出的时间戳才和 nextId 一致
+     */
+    public long timestampBase() {
+        return BEGIN_TIMESTAMP - ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds();
+    }
+
+    /**
+     * 从本地号段中取序列号，号段用完时切换到预取好的下一个号段
+     * 切换号段时如果预取还在进行，会等待它完成而不是另行分配，保证同一实例内序列号单调递增
+     */
+    private long nextCountFromSegment(String keyPrefix, String key) {
+        SegmentBuffer buffer = segmentBuffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            // 号段属于当天的 key 才能使用，跨天后序列号重新从当天的 key 分配
+            if (segment != null && segment.key.equals(key)) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.end) {
+                    if (count == segment.prefetchAt) {
+                        prefetch(buffer, key);
+                    }
+                    return count;
+                }
+            }
+            synchronized (buffer) {
+                // 其他线程已经切换过号段，直接重试
+                if (buffer.current != segment) {
+                    continue;
+                }
+                Segment next = buffer.next == null ? null : buffer.next.join();
+                buffer.next = null;
+                buffer.current = next != null && next.key.equals(key) ? next : allocateSegment(key);
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String key) {
+        synchronized (buffer) {
+            if (buffer.next == null) {
+                buffer.next = CompletableFuture.supplyAsync(() -> allocateSegment(key), segmentPrefetchExecutor)
+                        // 预取失败时返回 null，切换号段时同步重新分配
+                        .exceptionally(e -> null);
+            }
+        }
+    }
+
+    /**
+     * INCRBY 预留 [end - segmentSize + 1, end] 这一段序列号
+     */
+    private Segment allocateSegment(String key) {
+        long end = stringRedisTemplate.opsForValue().increment(key, segmentSize);
+        return new Segment(key, end - segmentSize + 1, end);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        segmentPrefetchExecutor.shutdownNow();
+    }
+
+    private static class Segment {
+        private final String key;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(String key, long start, long end) {
+            this.key = key;
+            this.end = end;
+            this.prefetchAt = start + (long) ((end - start + 1) * PREFETCH_RATIO);
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+    }
+
 }
@@ -0,0 +1,278 @@
+package com.ueat.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ueat.entity.Shop;
+import com.ueat.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 店铺 GEO 索引 shop:geo:类型id 的维护
+ * 1. 新增/修改店铺时增量 GEOADD，类型变化时从旧类型的索引中 ZREM
+ * 2. 定期比较每个类型的 ZCARD 和数据库中的店铺数量，不一致时只重建该类型；数据库中已经没有店铺的类型删除索引
+ * 3. 重建期间临时 key shop:geo:类型id:rebuild 存在，增量写入同时写入临时 key，RENAME 后不会丢失
+ * 没有类型或坐标的店铺不写入索引
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    // 重建开始时写入临时 key 的占位成员，保证重建期间临时 key 一直存在，RENAME 前移除
+    private static final String REBUILD_PLACEHOLDER = "rebuilding";
+    // 重建时的临时 key 后缀
+    private static final String REBUILD_SUFFIX = ":rebuild";
+    // 写入索引，正在重建时同时写入临时 key。ARGV 为 经度,纬度,店铺id 三个一组
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    // 从索引和临时 key 中移除店铺
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT;
+    // 重建完成：移除占位成员后用临时 key 替换索引，临时 key 为空时删除索引
+    private static final DefaultRedisScript<Long> FINISH_SCRIPT;
+
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT.setScriptText("redis.call('geoadd', KEYS[1], unpack(ARGV)); " +
+                "if redis.call('exists', KEYS[2]) == 1 then " +
+                "redis.call('geoadd', KEYS[2], unpack(ARGV)); " +
+                "end; " +
+                "return 1;");
+        REMOVE_SCRIPT = new DefaultRedisScript<>();
+        REMOVE_SCRIPT.setResultType(Long.class);
+        REMOVE_SCRIPT.setScriptText("redis.call('zrem', KEYS[1], ARGV[1]); " +
+                "redis.call('zrem', KEYS[2], ARGV[1]); " +
+                "return 1;");
+        FINISH_SCRIPT = new DefaultRedisScript<>();
+        FINISH_SCRIPT.setResultType(Long.class);
+        FINISH_SCRIPT.setScriptText("redis.call('zrem', KEYS[2], ARGV[1]); " +
+                "if redis.call('exists', KEYS[2]) == 1 then " +
+                "redis.call('rename', KEYS[2], KEYS[1]); " +
+                "else " +
+                "redis.call('del', KEYS[1]); " +
+                "end; " +
+                "return 1;");
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+
+    // 每次写入的店铺数量
+    @Value("${ueat.geo.chunk-size:500}")
+    private int chunkSize;
+    // 一致性检查间隔（秒），<= 0 时不检查
+    @Value("${ueat.geo.check-interval:600}")
+    private long checkInterval;
+
+    private final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("shop-geo-check-", true));
+
+    @PostConstruct
+    private void init() {
+        if (checkInterval > 0) {
+            checker.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        checker.shutdownNow();
+    }
+
+    /**
+     * 新增店铺
+     */
+    public void add(Shop shop) {
+        addAll(Collections.singletonList(shop));
+    }
+
+    /**
+     * 批量写入，按类型分组、分块执行 ADD_SCRIPT，没有类型或坐标的店铺跳过
+     */
+    public void addAll(Collection<Shop> shops) {
+        List<Shop> list = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            if (indexable(shop.getTypeId(), shop.getX(), shop.getY())) {
+                list.add(shop);
+            } else {
+                log.warn("店铺 {} 没有类型或坐标，不写入 GEO 索引", shop.getId());
+            }
+        }
+        for (int from = 0; from < list.size(); from += chunkSize) {
+            List<Shop> chunk = list.subList(from, Math.min(from + chunkSize, list.size()));
+            Map<Long, List<String>> args = new HashMap<>();
+            for (Shop shop : chunk) {
+                Collections.addAll(args.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()),
+                        shop.getX().toString(), shop.getY().toString(), shop.getId().toString());
+            }
+            args.forEach((typeId, argv) -> geoAdd(typeId, argv.toArray()));
+        }
+    }
+
+    /**
+     * 店铺修改后同步索引
+     * @param old 修改前的店铺
+     * @param shop 修改的字段，为null的字段表示没有修改
+     */
+    public void update(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        boolean typeChanged = !Objects.equals(typeId, old.getTypeId());
+        if (!typeChanged && Objects.equals(x, old.getX()) && Objects.equals(y, old.getY())) {
+            return;
+        }
+        String member = old.getId().toString();
+        // 类型变化：从旧类型的索引中移除
+        if (typeChanged && old.getTypeId() != null) {
+            String oldKey = SHOP_GEO_KEY + old.getTypeId();
+            stringRedisTemplate.execute(REMOVE_SCRIPT, Arrays.asList(oldKey, oldKey + REBUILD_SUFFIX), member);
+        }
+        if (!indexable(typeId, x, y)) {
+            log.warn("店铺 {} 没有类型或坐标，不写入 GEO 索引", member);
+            return;
+        }
+        // 坐标或类型变化：GEOADD 会覆盖已有成员的坐标
+        geoAdd(typeId, x.toString(), y.toString(), member);
+    }
+
+    /**
+     * 按类型比较索引成员数和数据库中的店铺数，不一致的类型重建，数据库中已经没有店铺的类型删除索引
+     */
+    public void check() {
+        try {
+            // 先扫描已有的索引再查库：扫描之后新增店铺的类型一定能在数据库中查到，不会被误删
+            Set<Long> indexedTypeIds = indexedTypeIds();
+            List<Map<String, Object>> rows = shopMapper.selectMaps(new QueryWrapper<Shop>()
+                    .select("type_id", "count(*) AS cnt")
+                    .isNotNull("type_id").isNotNull("x").isNotNull("y").groupBy("type_id"));
+            Map<Long, Long> dbCounts = new HashMap<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                dbCounts.put(((Number) row.get("type_id")).longValue(), ((Number) row.get("cnt")).longValue());
+            }
+            List<Long> typeIds = new ArrayList<>(dbCounts.keySet());
+            List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long typeId : typeIds) {
+                    conn.zCard(SHOP_GEO_KEY + typeId);
+                }
+                return null;
+            });
+            for (int i = 0; i < typeIds.size(); i++) {
+                Long typeId = typeIds.get(i);
+                long size = sizes.get(i) == null ? 0 : ((Number) sizes.get(i)).longValue();
+                if (size != dbCounts.get(typeId)) {
+                    log.warn("店铺 GEO 索引不一致，typeId: {}，索引: {}，数据库: {}，重建", typeId, size, dbCounts.get(typeId));
+                    rebuildType(typeId);
+                }
+            }
+            // 类型下的店铺都已移走或删除，GEO 中的成员全部是残留
+            indexedTypeIds.removeAll(dbCounts.keySet());
+            for (Long typeId : indexedTypeIds) {
+                log.warn("店铺 GEO 索引 typeId: {} 在数据库中已经没有店铺，删除", typeId);
+                stringRedisTemplate.delete(SHOP_GEO_KEY + typeId);
+            }
+        } catch (Exception e) {
+            log.error("店铺 GEO 索引一致性检查失败", e);
+        }
+    }
+
+    /**
+     * 重建一个类型的索引：写入临时 key 后 RENAME，重建期间查询不受影响
+     * 临时 key 从开始就有占位成员，重建期间的增量写入同时写入临时 key，不会被 RENAME 覆盖
+     */
+    public void rebuildType(Long typeId) {
+        String key = SHOP_GEO_KEY + typeId;
+        String tmpKey = key + REBUILD_SUFFIX;
+        stringRedisTemplate.delete(tmpKey);
+        stringRedisTemplate.opsForGeo().add(tmpKey, new Point(0, 0), REBUILD_PLACEHOLDER);
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y").eq("type_id", typeId)
+                        .isNotNull("x").isNotNull("y").gt("id", lastId)
+                        .orderByAsc("id").last("limit " + chunkSize));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(shops.size());
+                for (Shop shop : shops) {
+                    locations.add(new RedisGeoCommands.GeoLocation<>(
+                            shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                }
+                stringRedisTemplate.opsForGeo().add(tmpKey, locations);
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            stringRedisTemplate.execute(FINISH_SCRIPT, Arrays.asList(key, tmpKey), REBUILD_PLACEHOLDER);
+        } catch (RuntimeException e) {
+            // 重建失败时删除临时 key，增量写入不再双写
+            stringRedisTemplate.delete(tmpKey);
+            throw e;
+        }
+    }
+
+    /**
+     * SCAN shop:geo:*，返回已有索引的类型id
+     */
+    private Set<Long> indexedTypeIds() {
+        Set<Long> typeIds = new HashSet<>();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            ScanOptions options = ScanOptions.scanOptions().match(SHOP_GEO_KEY + "*").count(1000).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String suffix = new String(cursor.next(), StandardCharsets.UTF_8).substring(SHOP_GEO_KEY.length());
+                    // 跳过 shop:geo:result:*、shop:geo:类型id:rebuild 等其他 key
+                    if (NumberUtil.isLong(suffix)) {
+                        typeIds.add(Long.valueOf(suffix));
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("扫描店铺 GEO 索引失败", e);
+            }
+            return null;
+        });
+        return typeIds;
+    }
+
+    private void geoAdd(Long typeId, Object... argv) {
+        String key = SHOP_GEO_KEY + typeId;
+        stringRedisTemplate.execute(ADD_SCRIPT, Arrays.asList(key, key + REBUILD_SUFFIX), argv);
+    }
+
+    private static boolean indexable(Long typeId, Double x, Double y) {
+        return typeId != null && x != null && y != null;
+    }
+}
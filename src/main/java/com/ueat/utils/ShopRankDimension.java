@@ -0,0 +1,32 @@
+package com.ueat.utils;
+
+/**
+ * 店铺排行榜的维度
+ */
+public enum ShopRankDimension {
+    // 口味
+    TASTE,
+    // 性价比
+    VALUE,
+    // 配送速度
+    DELIVERY;
+
+    /**
+     * redis key 中使用的名称
+     */
+    public String key() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * 按名称查找维度，不区分大小写，找不到返回null
+     */
+    public static ShopRankDimension of(String name) {
+        for (ShopRankDimension dimension : values()) {
+            if (dimension.name().equalsIgnoreCase(name)) {
+                return dimension;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,338 @@
+package com.ueat.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ueat.entity.Shop;
+import com.ueat.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.ueat.utils.RedisConstants.SHOP_SEARCH_CHANNEL;
+
+/**
+ * 店铺名称/商圈/地址的本地倒排索引，替代 LIKE '%name%' 的全表扫描
+ * 1. 分词：去掉空白、转小写后取所有单字和相邻两字（bigram），中文名称不需要词典
+ * 2. 查询：关键字的 bigram 求交集（从最短的倒排表开始），按字段权重累加打分，店铺名前缀/完全匹配额外加分
+ * 3. 前缀补全：规范化后的店铺名放在跳表里，subMap 取前缀范围
+ * 4. 启动时按主键分批读库建索引；新增/修改店铺通过 pub/sub 通知所有实例，并定期整体重建兜底
+ */
+@Slf4j
+@Component
+public class ShopSearchIndex {
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    // 整体重建的间隔（秒），<= 0 时只在启动时建一次
+    @Value("${ueat.search.reload-interval:600}")
+    private long reloadInterval;
+
+    private static final int BATCH_SIZE = 1000;
+    // 字段权重
+    private static final float NAME_WEIGHT = 3f;
+    private static final float AREA_WEIGHT = 2f;
+    private static final float ADDRESS_WEIGHT = 1f;
+    // 店铺名完全匹配、前缀匹配的加分
+    private static final float EXACT_BONUS = 20f;
+    private static final float PREFIX_BONUS = 10f;
+
+    // 当前使用的索引，重建完成后整体替换
+    private volatile Index index = new Index();
+    // 正在重建的索引，重建期间的修改同时写入两份
+    private volatile Index building;
+    private volatile boolean ready;
+
+    private final ScheduledExecutorService reloader =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("shop-search-", true));
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(
+                (message, pattern) -> put(JSONUtil.toBean(new String(message.getBody(), StandardCharsets.UTF_8), Shop.class)),
+                new ChannelTopic(SHOP_SEARCH_CHANNEL));
+        // 异步建索引，建好之前查询走数据库
+        reloader.execute(this::reload);
+        if (reloadInterval > 0) {
+            reloader.scheduleWithFixedDelay(this::reload, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        reloader.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 新增/修改店铺后通知所有实例（包括自己）更新索引
+     * @param shop 需要包含 id、name、area、address
+     */
+    public void publish(Shop shop) {
+        Shop doc = new Shop().setId(shop.getId()).setName(shop.getName())
+                .setArea(shop.getArea()).setAddress(shop.getAddress());
+        stringRedisTemplate.convertAndSend(SHOP_SEARCH_CHANNEL, JSONUtil.toJsonStr(doc));
+    }
+
+    /**
+     * 按相关度分页搜索
+     * @return 当前页的店铺id，按相关度从高到低
+     */
+    public List<Long> search(String keyword, int current, int pageSize) {
+        String q = normalize(keyword);
+        if (q.isEmpty()) {
+            return Collections.emptyList();
+        }
+        current = Math.max(current, 1);
+        pageSize = Math.max(pageSize, 1);
+        Index idx = index;
+        // 1. 关键字的词，按倒排表长度从短到长
+        List<Map<Long, Float>> lists = new ArrayList<>();
+        for (String term : queryTerms(q)) {
+            Map<Long, Float> postings = idx.postings.get(term);
+            if (postings == null) {
+                return Collections.emptyList();
+            }
+            lists.add(postings);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        // 2. 遍历最短的倒排表求交集并打分，只保留前 current * pageSize 个
+        int limit = current * pageSize;
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1);
+        for (Long id : lists.get(0).keySet()) {
+            float score = 0;
+            boolean matched = true;
+            for (Map<Long, Float> postings : lists) {
+                Float weight = postings.get(id);
+                if (weight == null) {
+                    matched = false;
+                    break;
+                }
+                score += weight;
+            }
+            if (!matched) {
+                continue;
+            }
+            String name = idx.names.get(id);
+            if (name != null && name.startsWith(q)) {
+                score += name.length() == q.length() ? EXACT_BONUS : PREFIX_BONUS;
+            }
+            top.offer(new Hit(id, score));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        // 3. 取出当前页
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(Collections.reverseOrder());
+        List<Long> ids = new ArrayList<>(pageSize);
+        for (int i = (current - 1) * pageSize; i < hits.size(); i++) {
+            ids.add(hits.get(i).id);
+        }
+        return ids;
+    }
+
+    /**
+     * 店铺名前缀补全
+     * @return 以 prefix 开头的店铺名，按字典序
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String p = normalize(prefix);
+        if (p.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Index idx = index;
+        Set<String> result = new LinkedHashSet<>();
+        for (Set<Long> ids : idx.prefixes.subMap(p, true, p + Character.MAX_VALUE, true).values()) {
+            for (Long id : ids) {
+                String name = idx.displayNames.get(id);
+                if (name != null) {
+                    result.add(name);
+                }
+            }
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        return new ArrayList<>(result).subList(0, Math.min(limit, result.size()));
+    }
+
+    /**
+     * 从数据库按主键分批读取，建好新索引后整体替换
+     */
+    public void reload() {
+        try {
+            long begin = System.currentTimeMillis();
+            Index newIndex = new Index();
+            building = newIndex;
+            long lastId = 0;
+            int count = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "area", "address").gt("id", lastId)
+                        .orderByAsc("id").last("limit " + BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    newIndex.put(shop);
+                }
+                count += shops.size();
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            index = newIndex;
+            building = null;
+            ready = true;
+            log.info("店铺搜索索引重建完成，共 {} 个店铺，{} 个词，耗时 {} ms",
+                    count, newIndex.postings.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            building = null;
+            log.error("店铺搜索索引重建失败", e);
+        }
+    }
+
+    private void put(Shop shop) {
+        index.put(shop);
+        Index b = building;
+        if (b != null) {
+            b.put(shop);
+        }
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : StrUtil.cleanBlank(s).toLowerCase();
+    }
+
+    /**
+     * 查询词：只有一个字时用单字，否则用 bigram
+     */
+    private static Set<String> queryTerms(String q) {
+        if (q.length() == 1) {
+            return Collections.singleton(q);
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < q.length(); i++) {
+            terms.add(q.substring(i, i + 2));
+        }
+        return terms;
+    }
+
+    /**
+     * 索引词：所有单字和 bigram，同一个词在多个字段出现时权重累加
+     */
+    private static void addTerms(Map<String, Float> terms, String field, float weight) {
+        String s = normalize(field);
+        for (int i = 0; i < s.length(); i++) {
+            terms.merge(s.substring(i, i + 1), weight, Float::sum);
+            if (i + 1 < s.length()) {
+                terms.merge(s.substring(i, i + 2), weight, Float::sum);
+            }
+        }
+    }
+
+    private static class Index {
+        // 词 -> 店铺id -> 权重
+        private final Map<String, Map<Long, Float>> postings = new ConcurrentHashMap<>();
+        // 店铺id -> 店铺的所有词，修改时先删除旧词
+        private final Map<Long, Map<String, Float>> docs = new ConcurrentHashMap<>();
+        // 店铺id -> 规范化后的店铺名
+        private final Map<Long, String> names = new ConcurrentHashMap<>();
+        // 店铺id -> 原始店铺名
+        private final Map<Long, String> displayNames = new ConcurrentHashMap<>();
+        // 规范化后的店铺名 -> 店铺id
+        private final ConcurrentSkipListMap<String, Set<Long>> prefixes = new ConcurrentSkipListMap<>();
+
+        private synchronized void put(Shop shop) {
+            Long id = shop.getId();
+            remove(id);
+            Map<String, Float> terms = new HashMap<>();
+            addTerms(terms, shop.getName(), NAME_WEIGHT);
+            addTerms(terms, shop.getArea(), AREA_WEIGHT);
+            addTerms(terms, shop.getAddress(), ADDRESS_WEIGHT);
+            terms.forEach((term, weight) ->
+                    postings.computeIfAbsent(term, k -> new ConcurrentHashMap<>()).put(id, weight));
+            docs.put(id, terms);
+            String name = normalize(shop.getName());
+            if (!name.isEmpty()) {
+                names.put(id, name);
+                displayNames.put(id, shop.getName());
+                prefixes.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+        }
+
+        private void remove(Long id) {
+            Map<String, Float> terms = docs.remove(id);
+            if (terms != null) {
+                for (String term : terms.keySet()) {
+                    Map<Long, Float> list = postings.get(term);
+                    if (list != null) {
+                        list.remove(id);
+                        if (list.isEmpty()) {
+                            postings.remove(term);
+                        }
+                    }
+                }
+            }
+            String name = names.remove(id);
+            displayNames.remove(id);
+            if (name != null) {
+                Set<Long> ids = prefixes.get(name);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        prefixes.remove(name);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Hit implements Comparable<Hit> {
+        private final Long id;
+        private final float score;
+
+        private Hit(Long id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        /**
+         * 分数高的排前面，分数相同时id小的排前面
+         */
+        @Override
+        public int compareTo(Hit o) {
+            int c = Float.compare(score, o.score);
+            return c != 0 ? c : Long.compare(o.id, id);
+        }
+    }
+}
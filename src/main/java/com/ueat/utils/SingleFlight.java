@@ -0,0 +1,57 @@
+package com.ueat.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一个key同时只有一个线程（leader）执行加载，其他线程等待 leader 的结果
+ */
+public class SingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param key 合并的key
+     * @param loader 加载逻辑，只在 leader 线程中执行
+     * @param timeoutMillis 非 leader 线程等待结果的最长时间（毫秒）
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeoutMillis) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> running = calls.putIfAbsent(key, call);
+        // 1. 已经有线程在加载，等待它的结果
+        if (running != null) {
+            try {
+                return (T) running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待加载被中断: " + key, e);
+            } catch (ExecutionException e) {
+                // leader 加载失败，等待的线程抛出同样的异常
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException
+                        ? (RuntimeException) cause : new IllegalStateException("加载失败: " + key, cause);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("等待加载超时: " + key, e);
+            }
+        }
+        // 2. 当前线程是 leader，执行加载并把结果交给等待的线程
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            // 加载结束后移除，后续的请求重新走缓存
+            calls.remove(key, call);
+        }
+    }
+}
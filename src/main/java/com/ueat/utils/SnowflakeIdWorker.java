@@ -0,0 +1,145 @@
+package com.ueat.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ueat.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 雪花算法ID生成器：1位符号 + 41位毫秒时间戳 + 10位机器id + 12位序列号
+ * 生成id不访问网络，只有机器id在启动时从 redis 租约获取、并由后台线程定期续约
+ * 续约一直失败直到租约肯定已经过期时，该机器id可能已被其他实例获取，暂停生成id，直到重新获取到机器id
+ * 只有 ueat.id.generator=snowflake 时才会被创建（@Lazy）
+ */
+@Slf4j
+@Lazy
+@Component
+public class SnowflakeIdWorker implements IdGenerator {
+
+    // 从 2024/1/1/0/0/0 开始的毫秒时间戳
+    private static final long BEGIN_TIMESTAMP = 1704067200000L;
+    private static final long WORKER_ID_BITS = 10;
+    private static final long SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // 续约和释放都要先判断租约归属，与 unlock.lua 同理
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT.setScriptText("if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                "return redis.call('expire', KEYS[1], ARGV[2]); " +
+                "end; " +
+                "return 0;");
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT.setScriptText("if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                "return redis.call('del', KEYS[1]); " +
+                "end; " +
+                "return 0;");
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 机器id租约时长（秒），每 1/3 租约时长续约一次
+    @Value("${ueat.id.worker-lease:60}")
+    private long workerLease;
+
+    // 租约的持有者标识，避免续约/释放别的实例的机器id
+    private final String leaseOwner = UUID.randomUUID().toString(true);
+    private volatile long workerId = -1;
+    // 租约最晚的过期时间：最近一次成功获取/续约之前的时间 + 租约时长
+    private volatile long leaseExpireAt;
+
+    // 高位是相对 BEGIN_TIMESTAMP 的毫秒数，低 12 位是该毫秒内的序列号，一次 CAS 同时推进两者
+    private final AtomicLong state = new AtomicLong();
+
+    private final ScheduledExecutorService leaseRenewer =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("id-worker-lease-", true));
+
+    @PostConstruct
+    private void init() {
+        workerId = leaseWorkerId();
+        long period = Math.max(1, workerLease / 3);
+        leaseRenewer.scheduleWithFixedDelay(this::renewLease, period, period, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        if (System.currentTimeMillis() >= leaseExpireAt) {
+            throw new IllegalStateException("雪花算法机器id租约已过期，暂停生成id，workerId: " + workerId);
+        }
+        long prev, next;
+        do {
+            prev = state.get();
+            long now = System.currentTimeMillis() - BEGIN_TIMESTAMP;
+            // 1. 进入新的毫秒，序列号从 0 开始
+            // 2. 同一毫秒内、或者时钟回拨时，沿用上一次的时间戳继续自增序列号
+            //    序列号用完会进位到时间戳，相当于借用下一毫秒，保证id单调递增不重复
+            next = now > (prev >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : prev + 1;
+        } while (!state.compareAndSet(prev, next));
+        long timestamp = next >>> SEQUENCE_BITS;
+        return timestamp << (WORKER_ID_BITS + SEQUENCE_BITS) | workerId << SEQUENCE_BITS | next & SEQUENCE_MASK;
+    }
+
+    /**
+     * 依次尝试 SET id:worker:n NX EX，拿到的第一个 n 就是本实例的机器id
+     */
+    private long leaseWorkerId() {
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, leaseOwner, workerLease, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseExpireAt = begin + TimeUnit.SECONDS.toMillis(workerLease);
+                log.info("雪花算法机器id租约获取成功，workerId: {}", id);
+                return id;
+            }
+        }
+        throw new IllegalStateException("雪花算法机器id已全部被占用");
+    }
+
+    private void renewLease() {
+        try {
+            // 以发出续约命令之前的时间计算过期时间，宁可提前暂停
+            long begin = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), leaseOwner, String.valueOf(workerLease));
+            if (renewed == null || renewed == 0) {
+                // 租约已过期（例如长时间与 redis 断连），换一个机器id，避免和接手该id的实例冲突
+                log.warn("雪花算法机器id租约丢失，workerId: {}，重新获取", workerId);
+                workerId = leaseWorkerId();
+            } else {
+                leaseExpireAt = begin + TimeUnit.SECONDS.toMillis(workerLease);
+            }
+        } catch (Exception e) {
+            // 续约失败不影响生成id，直到租约过期；过期后 nextId 拒绝生成，等 redis 恢复后重新获取机器id
+            log.error("雪花算法机器id续约异常，workerId: {}", workerId, e);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        leaseRenewer.shutdownNow();
+        stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), leaseOwner);
+    }
+}
@@ -0,0 +1,21 @@
+-- 热门榜单对账：按点赞集合的成员数重新计算一批笔记的分数，写入临时榜单
+-- 读取点赞数和写入临时榜单在同一个脚本中完成，之后的点赞由 like.lua 同时累加到临时榜单，不会丢失也不会重复
+-- 1. 参数列表
+-- 1.1 临时榜单 blog:hot:reconcile
+local tmpKey = KEYS[1]
+-- 1.2 KEYS[i]（i >= 2）为这批笔记的点赞集合 blog:liked:笔记id
+-- 1.3 榜单保留的笔记数
+local maxSize = tonumber(ARGV[1])
+-- 1.4 ARGV[3i - 4]、ARGV[3i - 3]、ARGV[3i - 2] 为 KEYS[i] 对应笔记的 id、时间项、数据库中的点赞数
+for i = 2, #KEYS do
+    local j = 3 * i - 4
+    -- 2. 点赞集合是点赞数的权威来源；集合不存在（没有人点赞，或历史数据没有集合）时用数据库中的点赞数
+    local liked = redis.call('zcard', KEYS[i])
+    if (liked == 0) then
+        liked = tonumber(ARGV[j + 2])
+    end
+    redis.call('zadd', tmpKey, liked + tonumber(ARGV[j + 1]), ARGV[j])
+end
+-- 3. 只保留分数最高的 maxSize 个
+redis.call('zremrangebyrank', tmpKey, 0, -maxSize - 1)
+return 1
@@ -0,0 +1,33 @@
+-- 点赞/取消点赞，所有 key 在一次脚本中原子更新，不访问数据库
+-- 1. 参数列表
+-- 1.1 点赞用户集合 blog:liked:笔记id
+local likedKey = KEYS[1]
+-- 1.2 待回写的点赞数增量 blog:like:delta（field 为笔记id）
+local deltaKey = KEYS[2]
+-- 1.3 热门笔记榜单 blog:hot
+local hotKey = KEYS[3]
+-- 1.4 对账中的临时榜单 blog:hot:reconcile（不存在时 ZADD XX 不做任何事）
+local tmpKey = KEYS[4]
+-- 1.5 用户id
+local userId = ARGV[1]
+-- 1.6 笔记id
+local blogId = ARGV[2]
+-- 1.7 点赞时间戳（毫秒）
+local now = ARGV[3]
+-- 榜单分数包含发布时间，脚本中无法计算，只累加已在榜单中的笔记（ZADD XX）
+-- 榜单之外的笔记靠点赞进入榜单要等下一次对账
+-- 2. 判断是否已点赞
+if (redis.call('zscore', likedKey, userId) == false) then
+    -- 2.1 未点赞：加入点赞集合，增量+1，榜单中的笔记分数+1
+    redis.call('zadd', likedKey, now, userId)
+    redis.call('hincrby', deltaKey, blogId, 1)
+    redis.call('zadd', hotKey, 'XX', 'INCR', 1, blogId)
+    redis.call('zadd', tmpKey, 'XX', 'INCR', 1, blogId)
+    return 1
+end
+-- 2.2 已点赞：移出点赞集合，增量-1，榜单中的笔记分数-1
+redis.call('zrem', likedKey, userId)
+redis.call('hincrby', deltaKey, blogId, -1)
+redis.call('zadd', hotKey, 'XX', 'INCR', -1, blogId)
+redis.call('zadd', tmpKey, 'XX', 'INCR', -1, blogId)
+return 0
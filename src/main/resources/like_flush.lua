@@ -0,0 +1,20 @@
+-- 取出一批待回写的点赞数增量
+-- 1. 参数列表
+-- 1.1 增量 blog:like:delta
+local deltaKey = KEYS[1]
+-- 1.2 正在回写的批次 blog:like:delta:flushing
+local flushingKey = KEYS[2]
+-- 1.3 新批次的id
+local batchId = ARGV[1]
+-- 2. 上一批还没有确认完成（回写中途宕机），继续处理上一批，批次id不变
+if (redis.call('exists', flushingKey) == 1) then
+    return redis.call('hget', flushingKey, 'batch')
+end
+-- 3. 没有新的增量
+if (redis.call('exists', deltaKey) == 0) then
+    return false
+end
+-- 4. 整体改名为新批次并记录批次id，之后的点赞写入新的 blog:like:delta
+redis.call('rename', deltaKey, flushingKey)
+redis.call('hset', flushingKey, 'batch', batchId)
+return batchId
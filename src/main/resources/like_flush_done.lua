@@ -0,0 +1,5 @@
+-- 批次回写完成，只删除自己这一批，避免删掉其他实例刚取出的新批次
+if (redis.call('hget', KEYS[1], 'batch') == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -8,8 +8,12 @@
 local voucherId = ARGV[1]
 -- 1.2 用户id
 local userId = ARGV[2]
--- 1.3 订单id
-local orderId = ARGV[3]
+-- 1.3 订单id计数器key，与 RedisIdWorker 共用 icr:order:yyyy:MM:dd，保证两边生成的id不重复
+local idKey = ARGV[3]
+-- 1.4 时间戳基准（BEGIN_TIMESTAMP 减去时区偏移），与 RedisIdWorker.nextId 的时间戳口径一致
+local timestampBase = tonumber(ARGV[4])
+-- 1.5 调用方已生成好的订单id（非 RedisIdWorker 的 IdGenerator），为空时由脚本生成
+local presetOrderId = ARGV[5]
 -- 2. 数据key
 -- 2.1 库存key
 local stockKey = 'seckill:stock:' .. voucherId
@@ -19,18 +23,29 @@ local orderKey = 'seckill:order:' .. voucherId -- value是购买了优惠券的u
 -- 3.1 判断库存是否充足
 if(tonumber(redis.call('get',stockKey))<=0) then
     -- 3.2 库存不足
-    return 1
+    return {1}
 end
 -- 3.3 判断用户是否下单
 if(redis.call('sismember',orderKey,userId) == 1) then
     -- 3.4 存在 说明用户已经下过单
-    return 2
+    return {2}
+end
+-- 3.5 库存充足且用户没下过单，此时才生成订单id，失败的请求不消耗序列号
+local orderId = presetOrderId
+if (orderId == nil or orderId == '') then
+    -- 3.5.1 时间戳取 redis 服务器时间，序列号按天自增
+    local timestamp = tonumber(redis.call('time')[1]) - timestampBase
+    local count = redis.call('incr', idKey)
+    -- 3.5.2 拼接 id = timestamp << 32 | count
+    -- Lua 数字是双精度浮点，超过 2^53 会丢精度，因此按 10^7 分段计算十进制字符串（2^32 = 429 * 10^7 + 4967296）
+    local low = timestamp * 4967296 + count
+    local high = timestamp * 429 + math.floor(low / 10000000)
+    orderId = string.format('%d%07d', high, low % 10000000)
 end
--- 3.5 库存充足且用户没下过单
 -- 3.6 扣库存 incrby stockkey -1
 redis.call('incrby',stockKey,-1)
 -- 3.7 下单 sadd orderkey userId
 redis.call('sadd',orderKey,userId)
 -- 3.8 发送消息到队列中 xadd stream.orders * k1 v1 k2 v2
 redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',orderId)
-return 0
\ No newline at end of file
+return {0, orderId}
\ No newline at end of file
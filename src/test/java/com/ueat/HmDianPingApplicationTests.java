@@ -1,18 +1,40 @@
 package com.ueat;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.ueat.dto.Result;
+import com.ueat.dto.UserDTO;
+import com.ueat.entity.Blog;
+import com.ueat.entity.SeckillVoucher;
 import com.ueat.entity.Shop;
+import com.ueat.entity.VoucherOrder;
+import com.ueat.service.IBlogService;
+import com.ueat.service.ISeckillVoucherService;
+import com.ueat.service.IVoucherOrderService;
 import com.ueat.service.impl.ShopServiceImpl;
+import com.ueat.utils.BinaryCacheCodec;
+import com.ueat.utils.BlogLikeFlusher;
+import com.ueat.utils.BloomFilter;
 import com.ueat.utils.CacheClient;
+import com.ueat.utils.CacheCodec;
+import com.ueat.utils.JsonCacheCodec;
 import com.ueat.utils.RedisConstants;
+import com.ueat.utils.RedisData;
 import com.ueat.utils.RedisIdWorker;
+import com.ueat.utils.UserHolder;
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
@@ -21,7 +43,14 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-@SpringBootTest
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 关闭后台点赞回写，由测试手动控制回写的每一步
+@SpringBootTest(properties = "ueat.blog.like.flush-interval=3600000")
 class HmDianPingApplicationTests {
     @Resource
     private ShopServiceImpl shopService;
@@ -31,6 +60,18 @@ class HmDianPingApplicationTests {
     private RedisIdWorker redisIdWorker;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BlogLikeFlusher blogLikeFlusher;
+    @Resource
+    private BloomFilter blogBloomFilter;
 
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
@@ -109,4 +150,322 @@ class HmDianPingApplicationTests {
         Long hl2 = stringRedisTemplate.opsForHyperLogLog().size("hl2");
         System.out.println(hl2);
     }
+
+    @Test
+    void testOrderPersist() {
+        int n = 200;
+        long voucherId = 900000001L;
+        long idempotentVoucherId = 900000002L;
+        long batchVoucherId = 900000003L;
+        try {
+            // 1. 加锁 + count + update + insert 的旧路径
+            prepareSeckillVoucher(voucherId, n);
+            List<VoucherOrder> orders = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(voucherId, i));
+            }
+            for (VoucherOrder order : orders) {
+                RLock lock = redissonClient.getLock("lock:order:" + order.getUserId());
+                assertTrue(lock.tryLock());
+                try {
+                    voucherOrderService.createVoucherOrderByVoucherOrderId(order);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // 重投递的订单不落库、不扣库存
+            voucherOrderService.createVoucherOrderByVoucherOrderId(orders.get(0));
+            assertPersisted(voucherId, n, 0);
+
+            // 2. update + INSERT IGNORE 的幂等路径
+            prepareSeckillVoucher(idempotentVoucherId, n);
+            orders.clear();
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(idempotentVoucherId, i));
+            }
+            for (VoucherOrder order : orders) {
+                assertTrue(voucherOrderService.createVoucherOrderIdempotent(order));
+            }
+            assertFalse(voucherOrderService.createVoucherOrderIdempotent(orders.get(0)));
+            assertPersisted(idempotentVoucherId, n, 0);
+
+            // 3. 批量幂等路径，每批 50 单，最后一单留到下一批
+            prepareSeckillVoucher(batchVoucherId, n);
+            orders.clear();
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(batchVoucherId, i));
+            }
+            for (int i = 0; i < n - 1; i += 50) {
+                List<VoucherOrder> saved = voucherOrderService.createVoucherOrderBatch(
+                        orders.subList(i, Math.min(i + 50, n - 1)));
+                assertEquals(Math.min(50, n - 1 - i), saved.size());
+            }
+            assertPersisted(batchVoucherId, n - 1, 1);
+            // 只剩 1 个库存时，重投递的订单和最后一单在同一批，最后一单不能被丢掉
+            List<VoucherOrder> saved = voucherOrderService.createVoucherOrderBatch(
+                    Arrays.asList(orders.get(0), orders.get(n - 1)));
+            assertEquals(1, saved.size());
+            assertEquals(orders.get(n - 1).getId(), saved.get(0).getId());
+            assertPersisted(batchVoucherId, n, 0);
+            // 库存不足时整批回滚，由调用方逐单落库
+            assertNull(voucherOrderService.createVoucherOrderBatch(
+                    Collections.singletonList(newOrder(batchVoucherId, n))));
+            assertPersisted(batchVoucherId, n, 0);
+        } finally {
+            for (long id : new long[]{voucherId, idempotentVoucherId, batchVoucherId}) {
+                voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", id));
+                seckillVoucherService.removeById(id);
+            }
+        }
+    }
+
+    /**
+     * 同一批订单分别走三条落库路径，对比 orders/sec，只打印不断言，需要时手动运行
+     */
+    @Test
+    @Disabled("基准测试，手动运行")
+    void benchmarkOrderPersist() {
+        int n = 2000;
+        int batchSize = 100;
+        long voucherId = 900000001L;
+        long idempotentVoucherId = 900000002L;
+        long batchVoucherId = 900000003L;
+        try {
+            // 1. 加锁 + count + update + insert 的旧路径
+            prepareSeckillVoucher(voucherId, n);
+            List<VoucherOrder> orders = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(voucherId, i));
+            }
+            long begin = System.currentTimeMillis();
+            for (VoucherOrder order : orders) {
+                RLock lock = redissonClient.getLock("lock:order:" + order.getUserId());
+                lock.lock();
+                try {
+                    voucherOrderService.createVoucherOrderByVoucherOrderId(order);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            long lockedCost = System.currentTimeMillis() - begin;
+            // 2. update + INSERT IGNORE 的幂等路径
+            prepareSeckillVoucher(idempotentVoucherId, n);
+            orders.clear();
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(idempotentVoucherId, i));
+            }
+            begin = System.currentTimeMillis();
+            for (VoucherOrder order : orders) {
+                voucherOrderService.createVoucherOrderIdempotent(order);
+            }
+            long idempotentCost = System.currentTimeMillis() - begin;
+            // 3. 批量幂等路径，每批 batchSize 单
+            prepareSeckillVoucher(batchVoucherId, n);
+            orders.clear();
+            for (int i = 0; i < n; i++) {
+                orders.add(newOrder(batchVoucherId, i));
+            }
+            begin = System.currentTimeMillis();
+            for (int i = 0; i < n; i += batchSize) {
+                voucherOrderService.createVoucherOrderBatch(orders.subList(i, Math.min(i + batchSize, n)));
+            }
+            long batchCost = System.currentTimeMillis() - begin;
+            System.out.println("locked     orders/sec = " + n * 1000L / Math.max(lockedCost, 1));
+            System.out.println("idempotent orders/sec = " + n * 1000L / Math.max(idempotentCost, 1));
+            System.out.println("batch      orders/sec = " + n * 1000L / Math.max(batchCost, 1));
+        } finally {
+            for (long id : new long[]{voucherId, idempotentVoucherId, batchVoucherId}) {
+                voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", id));
+                seckillVoucherService.removeById(id);
+            }
+        }
+    }
+
+    @Test
+    void testCacheCodec() {
+        Shop shop = fullShop();
+        RedisData redisData = fullRedisData(shop);
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            assertEquals(shop, codec.decode(codec.encode((Object) shop), Shop.class));
+            assertRedisDataEquals(redisData, codec.decodeWithExpire(codec.encode(redisData), Shop.class));
+        }
+        BinaryCacheCodec binary = new BinaryCacheCodec();
+        // 含有不支持字段类型（Object data）的对象用 json 编码
+        Result result = new Result(true, null, "ok", 3L);
+        byte[] bytes = binary.encode((Object) result);
+        assertEquals('{', bytes[0]);
+        assertEquals(result, binary.decode(bytes, Result.class));
+        // 旧的 json 格式数据交给 JsonCacheCodec 解码
+        assertRedisDataEquals(redisData, binary.decodeWithExpire(new JsonCacheCodec().encode(redisData), Shop.class));
+    }
+
+    /**
+     * 对比两种编解码的字节数和 ns/op（带逻辑过期头和不带），只打印不断言，需要时手动运行
+     */
+    @Test
+    @Disabled("基准测试，手动运行")
+    void benchmarkCacheCodec() {
+        int n = 100000;
+        Shop shop = fullShop();
+        RedisData redisData = fullRedisData(shop);
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            String name = codec.getClass().getSimpleName();
+            byte[] plain = codec.encode((Object) shop);
+            byte[] withExpire = codec.encode(redisData);
+            // 预热
+            for (int i = 0; i < n; i++) {
+                codec.decode(codec.encode((Object) shop), Shop.class);
+                codec.decodeWithExpire(codec.encode(redisData), Shop.class);
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.encode((Object) shop);
+            }
+            long encodeCost = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.decode(plain, Shop.class);
+            }
+            long decodeCost = System.nanoTime() - begin;
+            System.out.println(name + " shop      bytes = " + plain.length
+                    + ", encode ns/op = " + encodeCost / n + ", decode ns/op = " + decodeCost / n);
+            begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.encode(redisData);
+            }
+            encodeCost = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.decodeWithExpire(withExpire, Shop.class);
+            }
+            decodeCost = System.nanoTime() - begin;
+            System.out.println(name + " redisData bytes = " + withExpire.length
+                    + ", encode ns/op = " + encodeCost / n + ", decode ns/op = " + decodeCost / n);
+        }
+    }
+
+    /**
+     * 所有字段都有值的店铺
+     */
+    private Shop fullShop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setImages("a.jpg,b.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号").setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 11, 16, 5, 47));
+    }
+
+    private RedisData fullRedisData(Shop shop) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.of(2030, 1, 1, 12, 0, 0));
+        redisData.setDelta(15L);
+        return redisData;
+    }
+
+    private void assertRedisDataEquals(RedisData expected, RedisData actual) {
+        assertEquals(expected.getExpireTime(), actual.getExpireTime());
+        assertEquals(expected.getDelta(), actual.getDelta());
+        assertEquals(expected.getData(), actual.getData());
+    }
+
+    @Test
+    void testLikeWriteBehind() {
+        Blog blog = prepareBlog();
+        String likedKey = RedisConstants.BLOG_LIKED_KEY + blog.getId();
+        UserDTO user = new UserDTO();
+        user.setId(810000000L);
+        UserHolder.saveUser(user);
+        try {
+            // 点赞只写 redis，回写之前数据库不变
+            blogService.likeBlog(blog.getId());
+            assertNotNull(stringRedisTemplate.opsForZSet().score(likedKey, user.getId().toString()));
+            assertEquals(0, blogService.getById(blog.getId()).getLiked());
+            assertEquals(1, blogLikeFlusher.flush());
+            assertEquals(1, blogService.getById(blog.getId()).getLiked());
+            // 取消点赞
+            blogService.likeBlog(blog.getId());
+            assertNull(stringRedisTemplate.opsForZSet().score(likedKey, user.getId().toString()));
+            blogLikeFlusher.flush();
+            assertEquals(0, blogService.getById(blog.getId()).getLiked());
+            // 没有增量时不回写
+            assertEquals(0, blogLikeFlusher.flush());
+        } finally {
+            UserHolder.removeUser();
+            removeBlog(blog);
+        }
+    }
+
+    @Test
+    void testLikeFlushRecovery() {
+        Blog blog = prepareBlog();
+        String field = blog.getId().toString();
+        try {
+            // 1. 事务提交后、删除批次前宕机：重新回写时批次id已存在，跳过，不会重复累加
+            stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKE_DELTA_KEY, field, 2);
+            String batchId = blogLikeFlusher.snapshot();
+            assertEquals(1, blogLikeFlusher.apply(Long.parseLong(batchId)));
+            assertTrue(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKE_FLUSHING_KEY));
+            assertEquals(0, blogLikeFlusher.flush());
+            assertFalse(stringRedisTemplate.hasKey(RedisConstants.BLOG_LIKE_FLUSHING_KEY));
+            assertEquals(2, blogService.getById(blog.getId()).getLiked());
+            // 2. 取出批次后、写库前宕机：下次回写继续处理同一批次，宕机后的新增量留给下一批
+            stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKE_DELTA_KEY, field, 3);
+            batchId = blogLikeFlusher.snapshot();
+            stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKE_DELTA_KEY, field, 4);
+            assertEquals(batchId, blogLikeFlusher.snapshot());
+            assertEquals(1, blogLikeFlusher.flush());
+            assertEquals(5, blogService.getById(blog.getId()).getLiked());
+            assertEquals(1, blogLikeFlusher.flush());
+            assertEquals(9, blogService.getById(blog.getId()).getLiked());
+        } finally {
+            removeBlog(blog);
+        }
+    }
+
+    private Blog prepareBlog() {
+        // 先回写遗留的批次和增量，避免影响回写数的断言
+        blogLikeFlusher.flush();
+        blogLikeFlusher.flush();
+        Blog blog = new Blog();
+        blog.setShopId(1L);
+        blog.setUserId(810000000L);
+        blog.setTitle("test");
+        blog.setImages("");
+        blog.setContent("test");
+        blog.setLiked(0);
+        blogService.save(blog);
+        blogBloomFilter.add(blog.getId());
+        return blog;
+    }
+
+    private void removeBlog(Blog blog) {
+        blogService.removeById(blog.getId());
+        stringRedisTemplate.delete(RedisConstants.BLOG_LIKED_KEY + blog.getId());
+    }
+
+    private void prepareSeckillVoucher(long voucherId, int stock) {
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucherId);
+        seckillVoucher.setStock(stock);
+        seckillVoucher.setBeginTime(LocalDateTime.now());
+        seckillVoucher.setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.saveOrUpdate(seckillVoucher);
+    }
+
+    /**
+     * 订单数和剩余库存都符合预期，且库存守恒
+     */
+    private void assertPersisted(long voucherId, int orders, int stock) {
+        assertEquals(orders, voucherOrderService.query().eq("voucher_id", voucherId).count());
+        assertEquals(stock, seckillVoucherService.getById(voucherId).getStock());
+    }
+
+    private VoucherOrder newOrder(long voucherId, int i) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(redisIdWorker.nextId("order"));
+        order.setUserId(800000000L + i);
+        order.setVoucherId(voucherId);
+        return order;
+    }
 }